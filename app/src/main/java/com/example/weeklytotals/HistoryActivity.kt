@@ -11,6 +11,7 @@ import android.widget.AdapterView
 import androidx.appcompat.app.AppCompatActivity
 import com.example.weeklytotals.data.AppDatabase
 import com.example.weeklytotals.data.CategoryTotal
+import com.example.weeklytotals.data.FirebaseSyncManager
 import com.google.android.material.button.MaterialButton
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -28,8 +29,9 @@ class HistoryActivity : AppCompatActivity() {
     private lateinit var textViewTotal: TextView
     private lateinit var layoutCategoryList: LinearLayout
 
-    private val dao by lazy { AppDatabase.getInstance(this).transactionDao() }
+    private val rollupDao by lazy { AppDatabase.getInstance(this).rollupDao() }
     private val categoryDao by lazy { AppDatabase.getInstance(this).categoryDao() }
+    private val syncManager by lazy { FirebaseSyncManager.getInstance(this) }
 
     private var isMonthMode = true
     private var availableYears: List<String> = emptyList()
@@ -65,7 +67,7 @@ class HistoryActivity : AppCompatActivity() {
             val allCategories = categoryDao.getAllCategoriesSync()
             categoryColors = allCategories.associate { it.name to Color.parseColor(it.color) }
             categoryDisplayNames = allCategories.associate { it.name to it.displayName }
-            availableYears = dao.getDistinctYears()
+            availableYears = rollupDao.getYears().map { it.toString() }
             withContext(Dispatchers.Main) {
                 switchToMonthMode()
             }
@@ -112,10 +114,13 @@ class HistoryActivity : AppCompatActivity() {
                 val monthIndex = spinnerPeriod.selectedItemPosition + 1
                 val year = Calendar.getInstance().get(Calendar.YEAR)
                 val yearMonth = String.format("%04d-%02d", year, monthIndex)
-                dao.getCategoryTotalsForMonth(yearMonth)
+                // Only the live weeks are synced continuously; older ones are pulled in on demand
+                syncManager.fetchHistoryWeeks("$yearMonth-01", "$yearMonth-31")
+                rollupDao.getCategoryTotalsForMonth(year * 100 + monthIndex)
             } else {
                 val year = spinnerPeriod.selectedItem as String
-                dao.getCategoryTotalsForYear(year)
+                syncManager.fetchHistoryWeeks("$year-01-01", "$year-12-31")
+                rollupDao.getCategoryTotalsForYear(year.toInt())
             }
 
             withContext(Dispatchers.Main) {
@@ -20,6 +20,8 @@ import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.example.weeklytotals.data.BudgetPreferences
 import com.example.weeklytotals.data.CategoryEntity
+import com.example.weeklytotals.data.FirebaseSyncManager
+import com.example.weeklytotals.data.Money
 import com.example.weeklytotals.data.Transaction
 import com.google.android.material.bottomnavigation.BottomNavigationView
 import com.google.android.material.button.MaterialButton
@@ -188,6 +190,20 @@ class MainActivity : AppCompatActivity() {
         requestSmsPermissionIfNeeded()
     }
 
+    // Live listeners only while this screen is visible; SyncWorker covers the rest.
+    // A rotation keeps them attached rather than dropping and re-reading everything.
+    override fun onStart() {
+        super.onStart()
+        FirebaseSyncManager.getInstance(this).startListening()
+    }
+
+    override fun onStop() {
+        super.onStop()
+        if (!isChangingConfigurations) {
+            FirebaseSyncManager.getInstance(this).stopListening()
+        }
+    }
+
     override fun onNewIntent(intent: Intent?) {
         super.onNewIntent(intent)
         // Re-select weekly tab when returning via REORDER_TO_FRONT
@@ -255,13 +271,13 @@ class MainActivity : AppCompatActivity() {
                 if (rawAmount != null && rawAmount > 0) {
                     val newAmount = BudgetPreferences(this).convertToCad(rawAmount)
                     if (transaction.isAdjustment) {
-                        viewModel.updateTransaction(transaction.copy(amount = newAmount, details = newDetails))
+                        viewModel.updateTransaction(transaction.copy(amountCents = Money.toCents(newAmount), details = newDetails))
                     } else if (userCategories.isNotEmpty() && spinner != null) {
                         val newCategory = userCategories[spinner.selectedItemPosition]
                         val isNewRefund = newCategory.name == "REFUND"
                         val effectiveAmount = if (isNewRefund) -newAmount else newAmount
                         viewModel.updateTransaction(
-                            transaction.copy(category = newCategory.name, amount = effectiveAmount, details = newDetails)
+                            transaction.copy(category = newCategory.name, amountCents = Money.toCents(effectiveAmount), details = newDetails)
                         )
                     }
                 }
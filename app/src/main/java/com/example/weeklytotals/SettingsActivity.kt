@@ -34,7 +34,13 @@ class SettingsActivity : AppCompatActivity() {
         supportActionBar?.setDisplayHomeAsUpEnabled(true)
         supportActionBar?.title = getString(R.string.settings_title)
 
-        findViewById<TextView>(R.id.textViewVersion).text = "v${BuildConfig.VERSION_NAME}"
+        val textViewVersion = findViewById<TextView>(R.id.textViewVersion)
+        textViewVersion.text = "v${BuildConfig.VERSION_NAME}"
+        // Hidden entry point to the sync diagnostics screen
+        textViewVersion.setOnLongClickListener {
+            startActivity(Intent(this, SyncDiagnosticsActivity::class.java))
+            true
+        }
 
         val budgetPreferences = BudgetPreferences(this)
 
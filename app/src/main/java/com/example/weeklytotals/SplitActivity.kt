@@ -14,8 +14,10 @@ import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
+import com.example.weeklytotals.data.Money
 import com.example.weeklytotals.data.SplitCategory
 import com.example.weeklytotals.data.SplitEntry
+import com.example.weeklytotals.data.SplitSyncManager
 import com.google.android.material.bottomnavigation.BottomNavigationView
 import com.google.android.material.button.MaterialButton
 
@@ -129,6 +131,20 @@ class SplitActivity : AppCompatActivity() {
         }
     }
 
+    // Live listeners only while this screen is visible; SyncWorker covers the rest.
+    // A rotation keeps them attached rather than dropping and re-reading everything.
+    override fun onStart() {
+        super.onStart()
+        SplitSyncManager.getInstance(this).startListening()
+    }
+
+    override fun onStop() {
+        super.onStop()
+        if (!isChangingConfigurations) {
+            SplitSyncManager.getInstance(this).stopListening()
+        }
+    }
+
     override fun onNewIntent(intent: Intent?) {
         super.onNewIntent(intent)
         // Re-select split tab when returning via REORDER_TO_FRONT
@@ -237,7 +253,7 @@ class SplitActivity : AppCompatActivity() {
                 viewModel.updateEntry(
                     entry.copy(
                         category = newCategory,
-                        amount = newAmount,
+                        amountCents = Money.toCents(newAmount),
                         comment = newComment
                     )
                 )
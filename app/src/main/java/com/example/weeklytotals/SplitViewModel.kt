@@ -5,6 +5,7 @@ import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.viewModelScope
 import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.Money
 import com.example.weeklytotals.data.SplitCategory
 import com.example.weeklytotals.data.SplitCategoryDao
 import com.example.weeklytotals.data.SplitEntry
@@ -33,7 +34,6 @@ class SplitViewModel(application: Application) : AndroidViewModel(application) {
         categoryDao = db.splitCategoryDao()
         entries = entryDao.getAllEntries()
         categories = categoryDao.getAllCategories()
-        syncManager.startListening()
     }
 
     /**
@@ -89,7 +89,7 @@ class SplitViewModel(application: Application) : AndroidViewModel(application) {
         viewModelScope.launch(Dispatchers.IO) {
             val entry = SplitEntry(
                 category = categoryName,
-                amount = amount,
+                amountCents = Money.toCents(amount),
                 comment = comment,
                 splitType = splitType,
                 createdByEmail = currentUserEmail
@@ -101,15 +101,17 @@ class SplitViewModel(application: Application) : AndroidViewModel(application) {
 
     fun updateEntry(entry: SplitEntry) {
         viewModelScope.launch(Dispatchers.IO) {
-            entryDao.update(entry)
-            syncManager.pushEntry(entry)
+            val updated = entry.copy(updatedAt = System.currentTimeMillis())
+            entryDao.update(updated)
+            syncManager.pushEntry(updated)
         }
     }
 
     fun deleteEntry(entry: SplitEntry) {
         viewModelScope.launch(Dispatchers.IO) {
-            entryDao.delete(entry)
-            syncManager.deleteEntry(entry)
+            val tombstone = entry.copy(isDeleted = true, updatedAt = System.currentTimeMillis())
+            entryDao.markDeleted(tombstone.syncId, tombstone.updatedAt)
+            syncManager.deleteEntry(tombstone)
         }
     }
 
@@ -117,7 +119,7 @@ class SplitViewModel(application: Application) : AndroidViewModel(application) {
         viewModelScope.launch(Dispatchers.IO) {
             val entry = SplitEntry(
                 category = "SETTLEMENT",
-                amount = amount,
+                amountCents = Money.toCents(amount),
                 comment = comment,
                 splitType = SplitEntry.TYPE_SETTLEMENT,
                 createdByEmail = currentUserEmail
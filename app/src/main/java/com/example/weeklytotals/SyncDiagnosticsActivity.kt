@@ -0,0 +1,117 @@
+package com.example.weeklytotals
+
+import android.os.Bundle
+import android.text.format.DateUtils
+import android.text.format.Formatter
+import android.widget.TextView
+import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
+import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.SyncMetrics
+import com.example.weeklytotals.data.SyncStats
+import com.example.weeklytotals.data.SyncTraffic
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.time.LocalDate
+
+/**
+ * Shows the latest [SyncMetrics] figures for each synced collection, and the daily
+ * [SyncTraffic] totals for the last week.
+ */
+class SyncDiagnosticsActivity : AppCompatActivity() {
+
+    private lateinit var textViewSyncStats: TextView
+    private lateinit var textViewSyncTraffic: TextView
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        setContentView(R.layout.activity_sync_diagnostics)
+
+        supportActionBar?.setDisplayHomeAsUpEnabled(true)
+        supportActionBar?.title = getString(R.string.sync_diagnostics_title)
+
+        textViewSyncStats = findViewById(R.id.textViewSyncStats)
+        textViewSyncTraffic = findViewById(R.id.textViewSyncTraffic)
+
+        val fromDay = LocalDate.now().minusDays(TRAFFIC_DAYS - 1).toString()
+        AppDatabase.getInstance(this).syncTrafficDao().getSince(fromDay).observe(this) { renderTraffic(it) }
+
+        lifecycleScope.launch {
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                launch {
+                    SyncMetrics.stats.collect { render(it) }
+                }
+                // Keeps "last sync" ages current between syncs
+                launch {
+                    while (true) {
+                        delay(1_000)
+                        render(SyncMetrics.stats.value)
+                    }
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val TRAFFIC_DAYS = 7L
+    }
+
+    override fun onSupportNavigateUp(): Boolean {
+        finish()
+        return true
+    }
+
+    private fun render(stats: Map<String, SyncStats>) {
+        if (stats.isEmpty()) {
+            textViewSyncStats.text = getString(R.string.sync_diagnostics_empty)
+            return
+        }
+        val now = System.currentTimeMillis()
+        textViewSyncStats.text = stats.values.sortedBy { it.collection }.joinToString("\n\n") { s ->
+            val age = if (s.syncCount == 0) "never" else DateUtils.formatElapsedTime((now - s.lastSuccessAt) / 1000) + " ago"
+            String.format(
+                "%s\n" +
+                    "  children  %d (syncs: %d)\n" +
+                    "  decode    %.1f ms\n" +
+                    "  diff      %.1f ms\n" +
+                    "  apply     %.1f ms\n" +
+                    "  rows      +%d  ~%d  -%d\n" +
+                    "  last sync %s\n" +
+                    "  events    %d (+%d  ~%d  -%d)",
+                s.collection, s.snapshotChildren, s.syncCount,
+                s.decodeMs, s.diffMs, s.applyMs,
+                s.inserted, s.updated, s.deleted,
+                age,
+                s.childEvents, s.childInserted, s.childUpdated, s.childDeleted
+            )
+        }
+    }
+
+    // One line per day and collection: estimated bytes and operation count each way
+    private fun renderTraffic(traffic: List<SyncTraffic>) {
+        if (traffic.isEmpty()) {
+            textViewSyncTraffic.text = getString(R.string.sync_traffic_empty)
+            return
+        }
+        val lines = mutableListOf(getString(R.string.sync_traffic_title, TRAFFIC_DAYS))
+        for ((day, rows) in traffic.groupBy { it.day }) {
+            lines.add("")
+            lines.add(day)
+            for ((collection, byDirection) in rows.groupBy { it.collection }) {
+                val up = byDirection.find { it.direction == SyncTraffic.DIRECTION_UP }
+                val down = byDirection.find { it.direction == SyncTraffic.DIRECTION_DOWN }
+                lines.add(
+                    String.format(
+                        "  %-20s up %s (%d)  down %s (%d)",
+                        collection,
+                        Formatter.formatShortFileSize(this, up?.bytes ?: 0L), up?.operations ?: 0L,
+                        Formatter.formatShortFileSize(this, down?.bytes ?: 0L), down?.operations ?: 0L
+                    )
+                )
+            }
+        }
+        textViewSyncTraffic.text = lines.joinToString("\n")
+    }
+}
@@ -9,6 +9,8 @@ import androidx.appcompat.app.AppCompatActivity
 import com.example.weeklytotals.data.AppDatabase
 import com.example.weeklytotals.data.BudgetPreferences
 import com.example.weeklytotals.data.CategoryEntity
+import com.example.weeklytotals.data.FirebaseSyncManager
+import com.example.weeklytotals.data.Money
 import com.example.weeklytotals.data.Transaction
 import com.example.weeklytotals.data.WeekCalculator
 import com.google.android.material.button.MaterialButton
@@ -85,12 +87,13 @@ class TransactionPromptActivity : AppCompatActivity() {
             val transaction = Transaction(
                 weekStartDate = weekCalculator.getCurrentWeekStart(),
                 category = selectedCategory.name,
-                amount = effectiveAmount,
+                amountCents = Money.toCents(effectiveAmount),
                 details = details
             )
 
             CoroutineScope(Dispatchers.IO).launch {
                 db.transactionDao().insert(transaction)
+                FirebaseSyncManager.getInstance(this@TransactionPromptActivity).pushTransaction(transaction)
                 withContext(Dispatchers.Main) {
                     Toast.makeText(
                         this@TransactionPromptActivity,
@@ -1,6 +1,8 @@
 package com.example.weeklytotals
 
 import android.app.Application
+import com.example.weeklytotals.data.SyncId
+import com.example.weeklytotals.data.SyncWorker
 import com.google.firebase.database.FirebaseDatabase
 
 class WeeklyTotalsApp : Application() {
@@ -9,5 +11,7 @@ class WeeklyTotalsApp : Application() {
         super.onCreate()
         // Must be called before any other Firebase Database usage
         FirebaseDatabase.getInstance().setPersistenceEnabled(true)
+        SyncId.init(this)
+        SyncWorker.schedule(this)
     }
 }
@@ -7,13 +7,16 @@ import androidx.room.RoomDatabase
 import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
 
-@Database(entities = [Transaction::class, CategoryEntity::class, WeeklySavings::class, SplitEntry::class, SplitCategory::class], version = 6, exportSchema = false)
+@Database(entities = [Transaction::class, CategoryEntity::class, WeeklySavings::class, SplitEntry::class, SplitCategory::class, OutboxEntry::class, SyncTraffic::class, WeekCategoryRollup::class, MonthCategoryRollup::class, YearCategoryRollup::class], version = 15, exportSchema = false)
 abstract class AppDatabase : RoomDatabase() {
     abstract fun transactionDao(): TransactionDao
     abstract fun categoryDao(): CategoryDao
     abstract fun weeklySavingsDao(): WeeklySavingsDao
     abstract fun splitEntryDao(): SplitEntryDao
     abstract fun splitCategoryDao(): SplitCategoryDao
+    abstract fun outboxDao(): OutboxDao
+    abstract fun syncTrafficDao(): SyncTrafficDao
+    abstract fun rollupDao(): RollupDao
 
     companion object {
         @Volatile
@@ -97,6 +100,286 @@ abstract class AppDatabase : RoomDatabase() {
             }
         }
 
+        private val MIGRATION_6_7 = object : Migration(6, 7) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    """CREATE TABLE IF NOT EXISTS sync_outbox (
+                        path TEXT NOT NULL PRIMARY KEY,
+                        collection TEXT NOT NULL,
+                        entityKey TEXT NOT NULL,
+                        enqueuedAt INTEGER NOT NULL
+                    )"""
+                )
+                // Startup no longer re-uploads everything, so queue existing rows once to make
+                // sure anything this device never managed to push still reaches Firebase.
+                val now = System.currentTimeMillis()
+                db.execSQL("INSERT OR REPLACE INTO sync_outbox (path, collection, entityKey, enqueuedAt) SELECT 'transactions_by_week/' || weekStartDate || '/' || createdAt, 'transactions', CAST(createdAt AS TEXT), $now FROM transactions")
+                db.execSQL("INSERT OR REPLACE INTO sync_outbox (path, collection, entityKey, enqueuedAt) SELECT 'categories/' || name, 'categories', name, $now FROM categories")
+                db.execSQL("INSERT OR REPLACE INTO sync_outbox (path, collection, entityKey, enqueuedAt) SELECT 'savings/' || weekStartDate, 'savings', weekStartDate, $now FROM weekly_savings")
+                db.execSQL("INSERT OR REPLACE INTO sync_outbox (path, collection, entityKey, enqueuedAt) SELECT 'split/entries/' || createdAt, 'split/entries', CAST(createdAt AS TEXT), $now FROM split_entries")
+                db.execSQL("INSERT OR REPLACE INTO sync_outbox (path, collection, entityKey, enqueuedAt) SELECT 'split/categories/' || name, 'split/categories', name, $now FROM split_categories")
+            }
+        }
+
+        internal val MIGRATION_7_8 = object : Migration(7, 8) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // createdAt becomes a unique key. Only copies identical in every column are
+                // dropped; distinct rows created in the same millisecond are re-keyed.
+                db.execSQL("DELETE FROM transactions WHERE id NOT IN (SELECT MIN(id) FROM transactions GROUP BY createdAt, weekStartDate, category, amount, isAdjustment, details)")
+                db.execSQL("DELETE FROM split_entries WHERE id NOT IN (SELECT MIN(id) FROM split_entries GROUP BY createdAt, category, amount, comment, splitType, createdByEmail)")
+                rekeyCreatedAtCollisions(db, "transactions", "'transactions_by_week/' || weekStartDate || '/' || createdAt", "transactions")
+                rekeyCreatedAtCollisions(db, "split_entries", "'split/entries/' || createdAt", "split/entries")
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_transactions_createdAt ON transactions (createdAt)")
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_split_entries_createdAt ON split_entries (createdAt)")
+            }
+        }
+
+        // Moves every row but the oldest of each shared createdAt to the next millisecond no
+        // row uses, then queues the moved rows and the ones that kept the old keys: the moved
+        // rows were never uploaded under their new key, and the remote copy at an old key may
+        // hold any row of its group.
+        private fun rekeyCreatedAtCollisions(db: SupportSQLiteDatabase, table: String, pathSql: String, collection: String) {
+            val taken = HashSet<Long>()
+            db.query("SELECT DISTINCT createdAt FROM $table").use { cursor ->
+                while (cursor.moveToNext()) taken.add(cursor.getLong(0))
+            }
+            val moves = ArrayList<Pair<Long, Long>>()
+            val keptKeys = HashSet<Long>()
+            db.query(
+                "SELECT id, createdAt FROM $table AS t WHERE EXISTS (SELECT 1 FROM $table AS other WHERE other.createdAt = t.createdAt AND other.id < t.id) ORDER BY createdAt, id"
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    var createdAt = cursor.getLong(1)
+                    keptKeys.add(createdAt)
+                    while (createdAt in taken) createdAt++
+                    taken.add(createdAt)
+                    moves.add(cursor.getLong(0) to createdAt)
+                }
+            }
+            if (moves.isEmpty()) return
+
+            for ((id, createdAt) in moves) {
+                db.execSQL("UPDATE $table SET createdAt = ? WHERE id = ?", arrayOf<Any?>(createdAt, id))
+            }
+            val now = System.currentTimeMillis()
+            db.execSQL(
+                """INSERT OR REPLACE INTO sync_outbox (path, collection, entityKey, enqueuedAt)
+                    SELECT $pathSql, '$collection', CAST(createdAt AS TEXT), $now FROM $table
+                    WHERE id IN (${moves.joinToString { it.first.toString() }}) OR createdAt IN (${keptKeys.joinToString()})"""
+            )
+        }
+
+        private val MIGRATION_8_9 = object : Migration(8, 9) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Deletes become tombstones; existing rows count as last changed when created
+                db.execSQL("ALTER TABLE transactions ADD COLUMN updatedAt INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("ALTER TABLE transactions ADD COLUMN isDeleted INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("UPDATE transactions SET updatedAt = createdAt")
+                db.execSQL("ALTER TABLE split_entries ADD COLUMN updatedAt INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("ALTER TABLE split_entries ADD COLUMN isDeleted INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("UPDATE split_entries SET updatedAt = createdAt")
+            }
+        }
+
+        private val MIGRATION_9_10 = object : Migration(9, 10) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // syncId replaces createdAt as the sync key. Existing rows keep their
+                // createdAt as id, which is also their current Firebase key, so remote
+                // rows and queued uploads still match.
+                db.execSQL("ALTER TABLE transactions ADD COLUMN syncId TEXT NOT NULL DEFAULT ''")
+                db.execSQL("UPDATE transactions SET syncId = CAST(createdAt AS TEXT)")
+                db.execSQL("DROP INDEX IF EXISTS index_transactions_createdAt")
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_transactions_syncId ON transactions (syncId)")
+                db.execSQL("ALTER TABLE split_entries ADD COLUMN syncId TEXT NOT NULL DEFAULT ''")
+                db.execSQL("UPDATE split_entries SET syncId = CAST(createdAt AS TEXT)")
+                db.execSQL("DROP INDEX IF EXISTS index_split_entries_createdAt")
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_split_entries_syncId ON split_entries (syncId)")
+            }
+        }
+
+        private val MIGRATION_10_11 = object : Migration(10, 11) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    """CREATE TABLE IF NOT EXISTS sync_traffic (
+                        day TEXT NOT NULL,
+                        collection TEXT NOT NULL,
+                        direction TEXT NOT NULL,
+                        bytes INTEGER NOT NULL,
+                        operations INTEGER NOT NULL,
+                        PRIMARY KEY(day, collection, direction)
+                    )"""
+                )
+            }
+        }
+
+        private val MIGRATION_11_12 = object : Migration(11, 12) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Every main-screen and rollover query filters by week
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_weekStartDate_createdAt ON transactions (weekStartDate, createdAt)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_weekStartDate_isAdjustment ON transactions (weekStartDate, isAdjustment)")
+            }
+        }
+
+        internal val MIGRATION_12_13 = object : Migration(12, 13) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Integer forms of weekStartDate (see WeekCalculator) for indexed queries
+                db.execSQL("ALTER TABLE transactions ADD COLUMN weekKey INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("ALTER TABLE transactions ADD COLUMN year INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("ALTER TABLE transactions ADD COLUMN yearMonth INTEGER NOT NULL DEFAULT 0")
+
+                // Filled in id ranges so no single statement rewrites the whole table. A date
+                // SQLite can't parse gives 0, as Transaction does, instead of NULL.
+                val maxId = db.query("SELECT COALESCE(MAX(id), 0) FROM transactions").use { cursor ->
+                    if (cursor.moveToFirst()) cursor.getLong(0) else 0L
+                }
+                var from = 0L
+                while (from < maxId) {
+                    val to = from + BACKFILL_CHUNK
+                    db.execSQL(
+                        """UPDATE transactions SET
+                            weekKey = COALESCE(CAST(julianday(weekStartDate) - 2440587.5 AS INTEGER), 0),
+                            year = COALESCE(CAST(substr(weekStartDate, 1, 4) AS INTEGER), 0),
+                            yearMonth = COALESCE(CAST(substr(weekStartDate, 1, 4) || substr(weekStartDate, 6, 2) AS INTEGER), 0)
+                            WHERE id > $from AND id <= $to"""
+                    )
+                    from = to
+                }
+
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_weekKey ON transactions (weekKey)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_year ON transactions (year)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_yearMonth ON transactions (yearMonth)")
+            }
+        }
+
+        private val MIGRATION_13_14 = object : Migration(13, 14) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Amounts move from REAL dollars to INTEGER cents. SQLite can't change a
+                // column's type in place, so each table is rebuilt and its indexes recreated.
+                db.execSQL(
+                    """CREATE TABLE transactions_new (
+                        id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                        weekStartDate TEXT NOT NULL,
+                        category TEXT NOT NULL,
+                        amountCents INTEGER NOT NULL,
+                        isAdjustment INTEGER NOT NULL,
+                        createdAt INTEGER NOT NULL,
+                        details TEXT,
+                        updatedAt INTEGER NOT NULL,
+                        isDeleted INTEGER NOT NULL,
+                        syncId TEXT NOT NULL,
+                        weekKey INTEGER NOT NULL,
+                        year INTEGER NOT NULL,
+                        yearMonth INTEGER NOT NULL
+                    )"""
+                )
+                db.execSQL(
+                    """INSERT INTO transactions_new (id, weekStartDate, category, amountCents, isAdjustment,
+                        createdAt, details, updatedAt, isDeleted, syncId, weekKey, year, yearMonth)
+                        SELECT id, weekStartDate, category, CAST(ROUND(amount * 100) AS INTEGER), isAdjustment,
+                        createdAt, details, updatedAt, isDeleted, syncId, weekKey, year, yearMonth FROM transactions"""
+                )
+                db.execSQL("DROP TABLE transactions")
+                db.execSQL("ALTER TABLE transactions_new RENAME TO transactions")
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_transactions_syncId ON transactions (syncId)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_weekStartDate_createdAt ON transactions (weekStartDate, createdAt)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_weekStartDate_isAdjustment ON transactions (weekStartDate, isAdjustment)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_weekKey ON transactions (weekKey)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_year ON transactions (year)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_yearMonth ON transactions (yearMonth)")
+
+                db.execSQL(
+                    """CREATE TABLE split_entries_new (
+                        id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                        category TEXT NOT NULL,
+                        amountCents INTEGER NOT NULL,
+                        comment TEXT NOT NULL,
+                        splitType TEXT NOT NULL,
+                        createdByEmail TEXT NOT NULL,
+                        createdAt INTEGER NOT NULL,
+                        updatedAt INTEGER NOT NULL,
+                        isDeleted INTEGER NOT NULL,
+                        syncId TEXT NOT NULL
+                    )"""
+                )
+                db.execSQL(
+                    """INSERT INTO split_entries_new (id, category, amountCents, comment, splitType,
+                        createdByEmail, createdAt, updatedAt, isDeleted, syncId)
+                        SELECT id, category, CAST(ROUND(amount * 100) AS INTEGER), comment, splitType,
+                        createdByEmail, createdAt, updatedAt, isDeleted, syncId FROM split_entries"""
+                )
+                db.execSQL("DROP TABLE split_entries")
+                db.execSQL("ALTER TABLE split_entries_new RENAME TO split_entries")
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_split_entries_syncId ON split_entries (syncId)")
+
+                db.execSQL(
+                    """CREATE TABLE weekly_savings_new (
+                        weekStartDate TEXT NOT NULL PRIMARY KEY,
+                        amountCents INTEGER NOT NULL
+                    )"""
+                )
+                db.execSQL(
+                    """INSERT INTO weekly_savings_new (weekStartDate, amountCents)
+                        SELECT weekStartDate, CAST(ROUND(amount * 100) AS INTEGER) FROM weekly_savings"""
+                )
+                db.execSQL("DROP TABLE weekly_savings")
+                db.execSQL("ALTER TABLE weekly_savings_new RENAME TO weekly_savings")
+            }
+        }
+
+        private val MIGRATION_14_15 = object : Migration(14, 15) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    """CREATE TABLE IF NOT EXISTS rollup_week_category (
+                        weekKey INTEGER NOT NULL,
+                        category TEXT NOT NULL,
+                        totalCents INTEGER NOT NULL,
+                        rowCount INTEGER NOT NULL,
+                        PRIMARY KEY(weekKey, category)
+                    )"""
+                )
+                db.execSQL(
+                    """CREATE TABLE IF NOT EXISTS rollup_month_category (
+                        yearMonth INTEGER NOT NULL,
+                        category TEXT NOT NULL,
+                        totalCents INTEGER NOT NULL,
+                        rowCount INTEGER NOT NULL,
+                        PRIMARY KEY(yearMonth, category)
+                    )"""
+                )
+                db.execSQL(
+                    """CREATE TABLE IF NOT EXISTS rollup_year_category (
+                        year INTEGER NOT NULL,
+                        category TEXT NOT NULL,
+                        totalCents INTEGER NOT NULL,
+                        rowCount INTEGER NOT NULL,
+                        PRIMARY KEY(year, category)
+                    )"""
+                )
+                // The triggers are created on open, after this runs, so the backfill and
+                // the triggers never count the same row twice
+                CategoryRollups.backfill(db)
+                // History and week ranges now read the rollups, so nothing queries
+                // transactions by period any more; these indexes would only slow writes
+                db.execSQL("DROP INDEX IF EXISTS index_transactions_weekKey")
+                db.execSQL("DROP INDEX IF EXISTS index_transactions_year")
+                db.execSQL("DROP INDEX IF EXISTS index_transactions_yearMonth")
+            }
+        }
+
+        /**
+         * Keeps the rollup tables current (see [CategoryRollups]). Room only creates tables,
+         * so any database built without this callback has rollups that never change.
+         */
+        val ROLLUP_TRIGGERS = object : Callback() {
+            override fun onOpen(db: SupportSQLiteDatabase) {
+                super.onOpen(db)
+                CategoryRollups.createTriggers(db)
+            }
+        }
+
+        // Rows per UPDATE when backfilling a new column
+        private const val BACKFILL_CHUNK = 5_000L
+
         private fun seedDefaultSplitCategories(db: SupportSQLiteDatabase) {
             db.execSQL("INSERT INTO split_categories (name, displayName, color, isSystem) VALUES ('CREDIT_CARD', 'Credit Card', '#2196F3', 0)")
             db.execSQL("INSERT INTO split_categories (name, displayName, color, isSystem) VALUES ('TRAVEL', 'Travel', '#9C27B0', 0)")
@@ -140,7 +423,7 @@ abstract class AppDatabase : RoomDatabase() {
                     AppDatabase::class.java,
                     "weekly_totals.db"
                 )
-                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6)
+                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11, MIGRATION_11_12, MIGRATION_12_13, MIGRATION_13_14, MIGRATION_14_15)
                     .addCallback(object : Callback() {
                         override fun onCreate(db: SupportSQLiteDatabase) {
                             super.onCreate(db)
@@ -153,6 +436,7 @@ abstract class AppDatabase : RoomDatabase() {
                             ensureDefaultSplitCategories(db)
                         }
                     })
+                    .addCallback(ROLLUP_TRIGGERS)
                     .build().also { INSTANCE = it }
             }
         }
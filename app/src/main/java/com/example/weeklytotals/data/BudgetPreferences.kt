@@ -6,33 +6,34 @@ class BudgetPreferences(context: Context) {
 
     private val prefs = context.getSharedPreferences("weekly_totals_prefs", Context.MODE_PRIVATE)
 
-    fun getBudget(): Double {
-        return Double.fromBits(prefs.getLong(KEY_BUDGET, (0.0).toRawBits()))
-    }
+    fun getBudget(): Double = Money.fromCents(getBudgetCents())
+
+    fun getBudgetCents(): Long = readCents(KEY_BUDGET_CENTS, KEY_BUDGET) ?: 0L
 
     fun setBudget(amount: Double) {
         prefs.edit()
-            .putLong(KEY_BUDGET, amount.toRawBits())
+            .putLong(KEY_BUDGET_CENTS, Money.toCents(amount))
+            .remove(KEY_BUDGET)
             .putBoolean(KEY_IS_BUDGET_SET, true)
             .apply()
     }
 
-    fun getPendingBudget(): Double? {
-        if (!prefs.contains(KEY_PENDING_BUDGET)) return null
-        return Double.fromBits(prefs.getLong(KEY_PENDING_BUDGET, 0L))
-    }
+    fun getPendingBudget(): Double? = readCents(KEY_PENDING_BUDGET_CENTS, KEY_PENDING_BUDGET)?.let { Money.fromCents(it) }
 
     fun setPendingBudget(amount: Double) {
         prefs.edit()
-            .putLong(KEY_PENDING_BUDGET, amount.toRawBits())
+            .putLong(KEY_PENDING_BUDGET_CENTS, Money.toCents(amount))
+            .remove(KEY_PENDING_BUDGET)
             .apply()
     }
 
     fun applyPendingBudget() {
-        val pending = getPendingBudget() ?: return
+        val pending = readCents(KEY_PENDING_BUDGET_CENTS, KEY_PENDING_BUDGET) ?: return
         prefs.edit()
-            .putLong(KEY_BUDGET, pending.toRawBits())
+            .putLong(KEY_BUDGET_CENTS, pending)
+            .remove(KEY_BUDGET)
             .putBoolean(KEY_IS_BUDGET_SET, true)
+            .remove(KEY_PENDING_BUDGET_CENTS)
             .remove(KEY_PENDING_BUDGET)
             .apply()
     }
@@ -51,14 +52,13 @@ class BudgetPreferences(context: Context) {
             .apply()
     }
 
-    fun getTotalSavings(): Double {
-        return Double.fromBits(prefs.getLong(KEY_TOTAL_SAVINGS, (0.0).toRawBits()))
-    }
+    fun getTotalSavings(): Double = Money.fromCents(readCents(KEY_TOTAL_SAVINGS_CENTS, KEY_TOTAL_SAVINGS) ?: 0L)
 
     fun addToSavings(amount: Double) {
-        val current = getTotalSavings()
+        val current = readCents(KEY_TOTAL_SAVINGS_CENTS, KEY_TOTAL_SAVINGS) ?: 0L
         prefs.edit()
-            .putLong(KEY_TOTAL_SAVINGS, (current + amount).toRawBits())
+            .putLong(KEY_TOTAL_SAVINGS_CENTS, current + Money.toCents(amount))
+            .remove(KEY_TOTAL_SAVINGS)
             .apply()
     }
 
@@ -106,16 +106,27 @@ class BudgetPreferences(context: Context) {
         return if (getInputCurrency() == "INR") amount / INR_TO_CAD_RATE else amount
     }
 
+    // Amounts are stored as cents; values saved before that are raw double bits under
+    // the old key and are converted the first time they are read
+    private fun readCents(key: String, legacyKey: String): Long? {
+        if (prefs.contains(key)) return prefs.getLong(key, 0L)
+        if (!prefs.contains(legacyKey)) return null
+        return Money.toCents(Double.fromBits(prefs.getLong(legacyKey, 0L)))
+    }
+
     fun clearAll() {
         prefs.edit().clear().apply()
     }
 
     companion object {
         private const val KEY_BUDGET = "budget"
+        private const val KEY_BUDGET_CENTS = "budget_cents"
         private const val KEY_PENDING_BUDGET = "pending_budget"
+        private const val KEY_PENDING_BUDGET_CENTS = "pending_budget_cents"
         private const val KEY_IS_BUDGET_SET = "is_budget_set"
         private const val KEY_AUTO_TRANSACTIONS = "auto_transactions_enabled"
         private const val KEY_TOTAL_SAVINGS = "total_savings"
+        private const val KEY_TOTAL_SAVINGS_CENTS = "total_savings_cents"
         private const val KEY_LAST_SAVINGS_WEEK = "last_savings_processed_week"
         private const val KEY_SAVINGS_BOOTSTRAP_DONE = "savings_bootstrap_done"
         private const val KEY_MONITORED_APPS = "monitored_app_packages"
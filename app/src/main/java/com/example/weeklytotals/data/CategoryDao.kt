@@ -30,6 +30,9 @@ interface CategoryDao {
     @Delete
     suspend fun delete(category: CategoryEntity)
 
+    @Query("DELETE FROM categories WHERE name IN (:names)")
+    suspend fun deleteByNames(names: List<String>): Int
+
     @Query("DELETE FROM categories")
     suspend fun deleteAll()
 }
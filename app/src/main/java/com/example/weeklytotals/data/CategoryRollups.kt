@@ -0,0 +1,110 @@
+package com.example.weeklytotals.data
+
+import androidx.room.Entity
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Per-category totals for one week, kept current by triggers on `transactions` (see
+ * [CategoryRollups]). Includes adjustments, as the rollover's week total does.
+ */
+@Entity(tableName = "rollup_week_category", primaryKeys = ["weekKey", "category"])
+data class WeekCategoryRollup(
+    val weekKey: Long,
+    val category: String,
+    val totalCents: Long,
+    val rowCount: Long
+)
+
+/** Per-category totals for one month, adjustments excluded, as on the history screen. */
+@Entity(tableName = "rollup_month_category", primaryKeys = ["yearMonth", "category"])
+data class MonthCategoryRollup(
+    val yearMonth: Int,
+    val category: String,
+    val totalCents: Long,
+    val rowCount: Long
+)
+
+/** Per-category totals for one year, adjustments excluded, as on the history screen. */
+@Entity(tableName = "rollup_year_category", primaryKeys = ["year", "category"])
+data class YearCategoryRollup(
+    val year: Int,
+    val category: String,
+    val totalCents: Long,
+    val rowCount: Long
+)
+
+/**
+ * SQLite triggers that keep the rollup tables in step with `transactions`, so totals are
+ * read as one row per category instead of re-summed from every transaction.
+ *
+ * Every insert, update and delete takes the old row out of its rollups and adds the new
+ * one in; deleted rows (tombstones) count nowhere. A rollup row is dropped once its last
+ * transaction is gone, so a period with rows in a rollup is a period with transactions.
+ */
+object CategoryRollups {
+
+    private class Rollup(val table: String, val key: String, val condition: String)
+
+    private val ROLLUPS = listOf(
+        Rollup("rollup_week_category", "weekKey", "isDeleted = 0"),
+        Rollup("rollup_month_category", "yearMonth", "isDeleted = 0 AND isAdjustment = 0"),
+        Rollup("rollup_year_category", "year", "isDeleted = 0 AND isAdjustment = 0")
+    )
+
+    /** Idempotent; run on every open so databases created by any path get the triggers. */
+    fun createTriggers(db: SupportSQLiteDatabase) {
+        db.execSQL(
+            """CREATE TRIGGER IF NOT EXISTS transactions_rollup_insert AFTER INSERT ON transactions
+                BEGIN ${ROLLUPS.joinToString("") { add(it, "NEW") }} END"""
+        )
+        db.execSQL(
+            """CREATE TRIGGER IF NOT EXISTS transactions_rollup_delete AFTER DELETE ON transactions
+                BEGIN ${ROLLUPS.joinToString("") { remove(it, "OLD") }} END"""
+        )
+        // Most updates only bump updatedAt or details; those leave every rollup as it is
+        db.execSQL(
+            """CREATE TRIGGER IF NOT EXISTS transactions_rollup_update AFTER UPDATE ON transactions
+                WHEN OLD.amountCents IS NOT NEW.amountCents OR OLD.category IS NOT NEW.category
+                OR OLD.weekStartDate IS NOT NEW.weekStartDate OR OLD.weekKey IS NOT NEW.weekKey
+                OR OLD.year IS NOT NEW.year OR OLD.yearMonth IS NOT NEW.yearMonth OR OLD.isAdjustment IS NOT NEW.isAdjustment
+                OR OLD.isDeleted IS NOT NEW.isDeleted
+                BEGIN ${ROLLUPS.joinToString("") { remove(it, "OLD") + add(it, "NEW") }} END"""
+        )
+    }
+
+    /** Rebuilds every rollup from `transactions`, for the migration that adds them. */
+    fun backfill(db: SupportSQLiteDatabase) {
+        for (rollup in ROLLUPS) {
+            db.execSQL("DELETE FROM ${rollup.table}")
+            db.execSQL(
+                """INSERT INTO ${rollup.table} (${rollup.key}, category, totalCents, rowCount)
+                    SELECT ${rollup.key}, category, SUM(amountCents), COUNT(*) FROM transactions
+                    WHERE ${rollup.condition} GROUP BY ${rollup.key}, category"""
+            )
+        }
+    }
+
+    // No UPSERT before SQLite 3.24 (API 30), so a row is ensured first and then updated
+    private fun add(rollup: Rollup, row: String): String {
+        val condition = rowCondition(rollup, row)
+        return """
+            INSERT OR IGNORE INTO ${rollup.table} (${rollup.key}, category, totalCents, rowCount)
+                SELECT $row.${rollup.key}, $row.category, 0, 0 WHERE $condition;
+            UPDATE ${rollup.table} SET totalCents = totalCents + $row.amountCents, rowCount = rowCount + 1
+                WHERE ${rollup.key} = $row.${rollup.key} AND category = $row.category AND $condition;"""
+    }
+
+    private fun remove(rollup: Rollup, row: String): String {
+        val condition = rowCondition(rollup, row)
+        return """
+            UPDATE ${rollup.table} SET totalCents = totalCents - $row.amountCents, rowCount = rowCount - 1
+                WHERE ${rollup.key} = $row.${rollup.key} AND category = $row.category AND $condition;
+            DELETE FROM ${rollup.table}
+                WHERE ${rollup.key} = $row.${rollup.key} AND category = $row.category AND rowCount <= 0;"""
+    }
+
+    // The rollup's filter, applied to the trigger's OLD or NEW row
+    private fun rowCondition(rollup: Rollup, row: String): String {
+        return rollup.condition.replace("isDeleted", "$row.isDeleted").replace("isAdjustment", "$row.isAdjustment")
+    }
+}
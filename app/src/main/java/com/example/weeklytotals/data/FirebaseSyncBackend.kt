@@ -0,0 +1,117 @@
+package com.example.weeklytotals.data
+
+import com.google.firebase.database.ChildEventListener
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseError
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.FirebaseDatabase
+import com.google.firebase.database.ValueEventListener
+
+/** [SyncBackend] on Firebase Realtime Database, rooted at `weekly_totals`. */
+class FirebaseSyncBackend(private val rootRef: DatabaseReference) : SyncBackend {
+
+    companion object {
+        @Volatile
+        private var INSTANCE: FirebaseSyncBackend? = null
+
+        fun getInstance(): FirebaseSyncBackend {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: FirebaseSyncBackend(
+                    FirebaseDatabase.getInstance().getReference("weekly_totals")
+                ).also { INSTANCE = it }
+            }
+        }
+    }
+
+    private fun ref(path: String): DatabaseReference {
+        return if (path.isEmpty()) rootRef else rootRef.child(path)
+    }
+
+    private fun DataSnapshot.toRemote(): RemoteSnapshot = RemoteSnapshot(key, value)
+
+    private fun valueEventListener(listener: SyncBackend.ValueListener): ValueEventListener {
+        return object : ValueEventListener {
+            override fun onDataChange(snapshot: DataSnapshot) {
+                listener.onValue(snapshot.toRemote())
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                listener.onCancelled(error.toException())
+            }
+        }
+    }
+
+    override fun listen(path: String, listener: SyncBackend.ValueListener): ListenerHandle {
+        val ref = ref(path)
+        val firebaseListener = ref.addValueEventListener(valueEventListener(listener))
+        return ListenerHandle { ref.removeEventListener(firebaseListener) }
+    }
+
+    override fun listenOnce(path: String, listener: SyncBackend.ValueListener) {
+        ref(path).addListenerForSingleValueEvent(valueEventListener(listener))
+    }
+
+    override fun listenChildren(path: String, listener: SyncBackend.ChildListener): ListenerHandle {
+        val ref = ref(path)
+        val firebaseListener = ref.addChildEventListener(object : ChildEventListener {
+            override fun onChildAdded(snapshot: DataSnapshot, previousChildName: String?) {
+                listener.onChildAdded(snapshot.toRemote())
+            }
+
+            override fun onChildChanged(snapshot: DataSnapshot, previousChildName: String?) {
+                listener.onChildChanged(snapshot.toRemote())
+            }
+
+            override fun onChildRemoved(snapshot: DataSnapshot) {
+                listener.onChildRemoved(snapshot.toRemote())
+            }
+
+            override fun onChildMoved(snapshot: DataSnapshot, previousChildName: String?) {
+                // Ordering is irrelevant to Room
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                listener.onCancelled(error.toException())
+            }
+        })
+        return ListenerHandle { ref.removeEventListener(firebaseListener) }
+    }
+
+    override fun listenConnected(listener: (Boolean) -> Unit): ListenerHandle {
+        val ref = rootRef.database.getReference(".info/connected")
+        val firebaseListener = ref.addValueEventListener(object : ValueEventListener {
+            override fun onDataChange(snapshot: DataSnapshot) {
+                listener(snapshot.getValue(Boolean::class.java) ?: false)
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                // .info/connected is local state and is never cancelled
+            }
+        })
+        return ListenerHandle { ref.removeEventListener(firebaseListener) }
+    }
+
+    override suspend fun get(path: String): RemoteSnapshot {
+        return ref(path).get().awaitResult().toRemote()
+    }
+
+    override suspend fun getKeyRange(path: String, startKey: String, endKey: String): RemoteSnapshot {
+        return ref(path).orderByKey().startAt(startKey).endAt(endKey).get().awaitResult().toRemote()
+    }
+
+    override suspend fun getChildrenFrom(path: String, child: String, start: Long): RemoteSnapshot {
+        return ref(path).orderByChild(child).startAt(start.toDouble()).get().awaitResult().toRemote()
+    }
+
+    override suspend fun put(path: String, value: Any?) {
+        ref(path).setValue(value).awaitResult()
+    }
+
+    override suspend fun delete(path: String) {
+        ref(path).removeValue().awaitResult()
+    }
+
+    override suspend fun update(updates: Map<String, Any?>) {
+        rootRef.updateChildren(updates).awaitResult()
+    }
+}
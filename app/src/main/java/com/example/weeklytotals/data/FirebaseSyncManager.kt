@@ -2,49 +2,67 @@ package com.example.weeklytotals.data
 
 import android.content.Context
 import android.util.Log
-import com.google.firebase.database.DataSnapshot
-import com.google.firebase.database.DatabaseError
-import com.google.firebase.database.DatabaseReference
-import com.google.firebase.database.FirebaseDatabase
-import com.google.firebase.database.ValueEventListener
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Keeps Room and the remote store in sync for transactions, categories, savings and the
+ * budget. Talks to the remote only through [SyncBackend], so it runs against Firebase in
+ * the app and against `InMemorySyncBackend` (test sources) in tests and benchmarks.
+ */
+class FirebaseSyncManager(
+    context: Context,
+    private val backend: SyncBackend = MeteredSyncBackend.getInstance(context),
+    private val appDb: AppDatabase = AppDatabase.getInstance(context),
+    private val outbox: SyncOutbox = SyncOutbox.getInstance(context)
+) {
 
-class FirebaseSyncManager(context: Context) {
-
-    private val db = FirebaseDatabase.getInstance()
-    private val rootRef: DatabaseReference = db.getReference("weekly_totals")
-    private val transactionsRef: DatabaseReference = rootRef.child("transactions")
-    private val categoriesRef: DatabaseReference = rootRef.child("categories")
-    private val budgetRef: DatabaseReference = rootRef.child("budget")
-    private val savingsRef: DatabaseReference = rootRef.child("savings")
-
-    private val appDb = AppDatabase.getInstance(context)
-    private val transactionDao = appDb.transactionDao()
     private val categoryDao = appDb.categoryDao()
     private val weeklySavingsDao = appDb.weeklySavingsDao()
+    private val outboxDao = appDb.outboxDao()
     private val budgetPreferences = BudgetPreferences(context)
+    private val syncPreferences = SyncPreferences(context)
+    private val weekCalculator = WeekCalculator()
 
     private val scope = CoroutineScope(Dispatchers.IO)
 
-    // Flags to prevent infinite sync loops.
-    // When we write to Room from a Firebase listener, we set these so the observer
-    // does not push the same change back to Firebase.
-    @Volatile
-    private var suppressTransactionSync = false
-    @Volatile
-    private var suppressCategorySync = false
+    private val transactionStore = TransactionStore(appDb)
+    private val transactionSync = SyncEngine(SyncCollection(TransactionCodec, transactionStore), backend, appDb, outbox, scope)
+    private val categorySync = SyncEngine(SyncCollection(CategoryCodec, CategoryStore(appDb)), backend, appDb, outbox, scope)
+    private val savingsSync = SyncEngine(SyncCollection(SavingsCodec, SavingsStore(appDb)), backend, appDb, outbox, scope)
+
+    private val catchUpMutex = Mutex()
+
+    // Listeners attached by startListening(), detached again by stopListening()
+    private val listenerHandles = mutableListOf<ListenerHandle>()
     @Volatile
-    private var suppressSavingsSync = false
+    private var isListening = false
 
-    /** Completes after the first onDataChange from the transaction listener. */
+    /** Completes once both live weeks have finished their first reconcile. */
     val initialTransactionSyncComplete = CompletableDeferred<Unit>()
 
     companion object {
         private const val TAG = "FirebaseSyncManager"
 
+        // Transactions live under transactions_by_week/{weekStartDate}/{syncId};
+        // the flat transactions/{createdAt} node is only read to migrate old data.
+        private const val TRANSACTIONS_BY_WEEK = TransactionCodec.NODE
+        private const val LEGACY_TRANSACTIONS = "transactions"
+        private const val BUDGET = "budget"
+
+        // Each moved row is two paths (new location + delete of the old one)
+        private const val MAX_MOVES_PER_UPDATE = 250
+        private const val FETCH_TIMEOUT_MS = 10_000L
+
+        // Remote field the catch-up queries by, and how far before the watermark it looks
+        private const val UPDATED_AT = "updatedAt"
+        private const val WATERMARK_SKEW_MS = 10 * 60 * 1000L
+
         @Volatile
         private var INSTANCE: FirebaseSyncManager? = null
 
@@ -58,159 +76,327 @@ class FirebaseSyncManager(context: Context) {
     // ── Transaction sync ────────────────────────────────────────────────
 
     fun pushTransaction(transaction: Transaction) {
-        if (suppressTransactionSync) return
-        val key = transaction.createdAt.toString()
-        val data = mutableMapOf<String, Any?>(
-            "weekStartDate" to transaction.weekStartDate,
-            "category" to transaction.category,
-            "amount" to transaction.amount,
-            "isAdjustment" to transaction.isAdjustment,
-            "createdAt" to transaction.createdAt
-        )
-        if (transaction.details != null) {
-            data["details"] = transaction.details
-        }
-        transactionsRef.child(key).setValue(data)
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to push transaction", e) }
+        transactionSync.push(transaction)
+    }
+
+    /** Queues all of [transactions] in one outbox write. */
+    fun pushAllTransactions(transactions: List<Transaction>) {
+        if (transactions.isNotEmpty()) transactionSync.pushAll(transactions)
     }
 
+    /** Call with the row after it has been marked deleted; the outbox uploads the tombstone. */
     fun deleteTransaction(transaction: Transaction) {
-        if (suppressTransactionSync) return
-        val key = transaction.createdAt.toString()
-        transactionsRef.child(key).removeValue()
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to delete transaction from Firebase", e) }
+        transactionSync.push(transaction)
     }
 
+    /**
+     * How remote transaction changes are applied to Room.
+     *
+     * [CHILD_EVENTS] runs one full reconcile when the listener attaches and then applies
+     * each added/changed/removed child on its own, so an edit costs the same no matter how
+     * much history exists. [SNAPSHOT] re-diffs the whole week on every change.
+     */
+    enum class TransactionSyncMode { SNAPSHOT, CHILD_EVENTS }
+
+    var transactionSyncMode = TransactionSyncMode.CHILD_EVENTS
+
+    /**
+     * Listens to the current and previous week only — everything the main screen and the
+     * week rollover read. Older weeks are downloaded on demand by [fetchHistoryWeeks].
+     */
     fun startTransactionListener() {
-        transactionsRef.addValueEventListener(object : ValueEventListener {
-            override fun onDataChange(snapshot: DataSnapshot) {
-                scope.launch {
-                    suppressTransactionSync = true
-                    try {
-                        syncTransactionsFromFirebase(snapshot)
-                    } finally {
-                        suppressTransactionSync = false
-                        initialTransactionSyncComplete.complete(Unit)
+        val liveWeeks = liveWeeks()
+        val initialLoads = liveWeeks.map { CompletableDeferred<Unit>() }
+
+        scope.launch {
+            // Rows still in the old flat layout have to be in place before the first reconcile
+            migrateFlatTransactions()
+            liveWeeks.forEachIndexed { i, week ->
+                val path = "$TRANSACTIONS_BY_WEEK/$week"
+                val onReconciled: () -> Unit = { initialLoads[i].complete(Unit) }
+                keep(
+                    when (transactionSyncMode) {
+                        TransactionSyncMode.SNAPSHOT -> transactionSync.listen(path, onReconciled = onReconciled)
+                        TransactionSyncMode.CHILD_EVENTS -> transactionSync.listenChildren(path, onReconciled = onReconciled)
                     }
-                }
+                )
             }
+            initialLoads.awaitAll()
+            initialTransactionSyncComplete.complete(Unit)
+        }
+    }
 
-            override fun onCancelled(error: DatabaseError) {
-                Log.e(TAG, "Transaction listener cancelled", error.toException())
-                initialTransactionSyncComplete.complete(Unit)
+    /**
+     * Moves transactions still stored under the old flat `transactions/{createdAt}` node to
+     * `transactions_by_week/{week}/{createdAt}` (old keys stay valid sync ids). Each move is one multi-path write, so a row
+     * is never visible in both places. Runs on every start to pick up writes from a device
+     * still on an older version; once the old node is gone it is a single empty read.
+     */
+    private suspend fun migrateFlatTransactions() {
+        val snapshot = try {
+            withTimeoutOrNull(FETCH_TIMEOUT_MS) { backend.get(LEGACY_TRANSACTIONS) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to read flat transactions", e)
+            null
+        } ?: return
+        if (snapshot.childrenCount == 0) return
+
+        var moved = 0
+        for (batch in snapshot.children.chunked(MAX_MOVES_PER_UPDATE)) {
+            val updates = HashMap<String, Any?>(batch.size * 2)
+            for (child in batch) {
+                val key = child.key ?: continue
+                // Rows without a week are left where they are rather than guessed at
+                val week = (child.value as? Map<*, *>)?.get("weekStartDate") as? String ?: continue
+                updates["$TRANSACTIONS_BY_WEEK/$week/$key"] = child.value
+                updates["$LEGACY_TRANSACTIONS/$key"] = null
             }
-        })
+            if (updates.isEmpty()) continue
+            try {
+                backend.update(updates)
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to move flat transactions", e)
+                return
+            }
+            moved += updates.size / 2
+        }
+        Log.d(TAG, "Moved $moved transactions to the weekly layout")
     }
 
-    private suspend fun syncTransactionsFromFirebase(snapshot: DataSnapshot) {
-        // Build a set of createdAt timestamps from Firebase
-        val remoteTransactions = mutableMapOf<Long, Map<String, Any?>>()
-        for (child in snapshot.children) {
-            val createdAt = when (val raw = child.child("createdAt").value) {
-                is Long -> raw
-                is Double -> raw.toLong()
-                else -> continue
+    /**
+     * Downloads the weeks between [fromWeek] and [toWeek] (inclusive `yyyy-MM-dd` keys) into
+     * Room so history screens can show them, from the live weeks node and from the
+     * [WeekArchive] blobs of archived weeks. The live weeks are skipped because their
+     * listeners already keep them current, and a closed range is only downloaded once;
+     * after that [catchUpChangedWeeks] keeps it current. Returns quietly when offline;
+     * history then shows whatever is already local.
+     */
+    suspend fun fetchHistoryWeeks(fromWeek: String, toWeek: String) {
+        if (syncPreferences.isHistoryRangeFetched(fromWeek, toWeek)) return
+
+        val snapshot = try {
+            withTimeoutOrNull(FETCH_TIMEOUT_MS) {
+                backend.getKeyRange(TRANSACTIONS_BY_WEEK, fromWeek, toWeek)
             }
-            remoteTransactions[createdAt] = mapOf(
-                "weekStartDate" to (child.child("weekStartDate").value as? String ?: continue),
-                "category" to (child.child("category").value as? String ?: continue),
-                "amount" to (child.child("amount").value?.let { toDouble(it) } ?: continue),
-                "isAdjustment" to (child.child("isAdjustment").value as? Boolean ?: false),
-                "createdAt" to createdAt,
-                "details" to (child.child("details").value as? String)
-            )
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to fetch history $fromWeek..$toWeek", e)
+            null
+        } ?: return
+
+        val currentWeek = weekCalculator.getCurrentWeekStart()
+        val previousWeek = weekCalculator.getPreviousWeekStart(currentWeek)
+        for (weekSnapshot in snapshot.children) {
+            val week = weekSnapshot.key ?: continue
+            if (week == currentWeek || week == previousWeek) continue
+            transactionSync.reconcile(weekSnapshot)
         }
 
-        // Get all local transactions across all weeks using a raw query
-        val localTransactions = getAllLocalTransactions()
-        val localByCreatedAt = localTransactions.associateBy { it.createdAt }
-
-        // Insert or update transactions from Firebase that are missing or different locally
-        for ((createdAt, data) in remoteTransactions) {
-            val local = localByCreatedAt[createdAt]
-            val weekStartDate = data["weekStartDate"] as String
-            val category = data["category"] as String
-            val amount = data["amount"] as Double
-            val isAdjustment = data["isAdjustment"] as Boolean
-            val details = data["details"] as? String
-
-            if (local == null) {
-                if (isAdjustment) {
-                    val existingAdjustment = transactionDao.getAdjustmentForWeek(weekStartDate)
-                    if (existingAdjustment != null) {
-                        transactionDao.update(
-                            existingAdjustment.copy(
-                                amount = amount,
-                                createdAt = createdAt
-                            )
-                        )
-                    } else {
-                        transactionDao.insert(
-                            Transaction(
-                                weekStartDate = weekStartDate,
-                                category = category,
-                                amount = amount,
-                                isAdjustment = isAdjustment,
-                                createdAt = createdAt,
-                                details = details
-                            )
-                        )
-                    }
-                } else {
-                    transactionDao.insert(
-                        Transaction(
-                            weekStartDate = weekStartDate,
-                            category = category,
-                            amount = amount,
-                            isAdjustment = isAdjustment,
-                            createdAt = createdAt,
-                            details = details
-                        )
-                    )
-                }
-            } else if (local.weekStartDate != weekStartDate ||
-                local.category != category ||
-                local.amount != amount ||
-                local.isAdjustment != isAdjustment ||
-                local.details != details
-            ) {
-                transactionDao.update(
-                    local.copy(
-                        weekStartDate = weekStartDate,
-                        category = category,
-                        amount = amount,
-                        isAdjustment = isAdjustment,
-                        details = details
-                    )
-                )
+        val archived = try {
+            withTimeoutOrNull(FETCH_TIMEOUT_MS) {
+                backend.getKeyRange(WeekArchive.NODE, fromWeek, toWeek)
             }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to fetch archived weeks $fromWeek..$toWeek", e)
+            null
+        } ?: return
+        for (archiveSnapshot in archived.children) {
+            val week = archiveSnapshot.key ?: continue
+            val archive = WeekArchive.decode(archiveSnapshot.value) ?: continue
+            // Upserts are last-write-wins, so rows edited after archiving are not rolled back
+            transactionSync.reconcile(archive.toSnapshot(week))
         }
 
-        // Collect weeks that have adjustments in Firebase, so we don't
-        // accidentally delete a local adjustment whose createdAt was just re-aligned.
-        val remoteAdjustmentWeeks = remoteTransactions.values
-            .filter { it["isAdjustment"] as? Boolean == true }
-            .mapTo(mutableSetOf()) { it["weekStartDate"] as String }
-
-        // Delete local transactions that are not in Firebase
-        // Skip if Firebase is empty — avoids race condition on first sync / fresh DB
-        if (remoteTransactions.isNotEmpty()) {
-            for (local in localTransactions) {
-                if (local.createdAt !in remoteTransactions) {
-                    // Don't delete a local adjustment if Firebase still has one
-                    // for the same week (its createdAt may have been re-aligned above)
-                    if (local.isAdjustment && local.weekStartDate in remoteAdjustmentWeeks) {
-                        continue
-                    }
-                    transactionDao.delete(local)
+        // A range reaching into the live weeks can still gain weeks, so it is fetched again
+        if (toWeek < previousWeek) {
+            syncPreferences.addFetchedHistoryRange(fromWeek, toWeek)
+        }
+    }
+
+    /**
+     * Pulls the transaction weeks that changed while this device was away. Each week's
+     * remote [WeekDigest] is compared with the digest of the local rows and only weeks that
+     * differ are pulled. Covers weeks that have local rows or were downloaded by
+     * [fetchHistoryWeeks]; other history stays on demand. The live weeks are skipped
+     * because their listeners reconcile them anyway.
+     *
+     * The first run reads every digest and every changed week in full. After that only
+     * digests and rows whose updatedAt is at or after the stored watermark are fetched
+     * (`orderByChild("updatedAt").startAt(watermark)`), so a reconnect costs what changed
+     * rather than what exists. Deletes arrive as tombstones, so a partial week is enough.
+     */
+    suspend fun catchUpChangedWeeks() {
+        // A catch-up already running will see everything this one would
+        if (!catchUpMutex.tryLock()) return
+        try {
+            val watermark = syncPreferences.getTransactionWatermark()
+            val incremental = watermark > 0
+            // Rows stamped by a device whose clock runs a little behind still fall inside
+            val since = watermark - WATERMARK_SKEW_MS
+
+            val snapshot = try {
+                withTimeoutOrNull(FETCH_TIMEOUT_MS) {
+                    if (incremental) backend.getChildrenFrom(WeekDigest.NODE, UPDATED_AT, since)
+                    else backend.get(WeekDigest.NODE)
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to read week digests", e)
+                null
+            } ?: return
+
+            val remoteDigests = HashMap<String, WeekDigest?>()
+            var newWatermark = watermark
+            for (child in snapshot.children) {
+                val week = child.key ?: continue
+                val digest = WeekDigest.decode(child.value)
+                remoteDigests[week] = digest
+                if (digest != null) newWatermark = maxOf(newWatermark, digest.updatedAt)
+            }
+
+            val currentWeek = weekCalculator.getCurrentWeekStart()
+            val previousWeek = weekCalculator.getPreviousWeekStart(currentWeek)
+            val changed: List<String>
+            val trackedCount: Int
+            if (incremental) {
+                val tracked = remoteDigests.keys.filter {
+                    transactionStore.hasWeek(it) || syncPreferences.isHistoryRangeFetched(it, it)
+                }
+                changed = tracked.filter {
+                    it != currentWeek && it != previousWeek && remoteDigests[it] != transactionStore.digestForWeek(it)
+                }
+                trackedCount = tracked.size
+            } else {
+                val archivedWeeks = readArchiveIndex() ?: return
+                val localDigests = WeekDigest.byWeek(getAllLocalTransactions())
+                val tracked = localDigests.keys + remoteDigests.keys.filter {
+                    syncPreferences.isHistoryRangeFetched(it, it)
+                }
+                // An archived week has no digest until it is edited again; its rows come
+                // from the archive when history asks for them
+                changed = tracked.filter {
+                    it != currentWeek && it != previousWeek && remoteDigests[it] != localDigests[it] &&
+                        !(remoteDigests[it] == null && it in archivedWeeks)
                 }
+                trackedCount = tracked.size
             }
+
+            for (week in changed) {
+                if (!pullWeek(week, if (incremental) since else null)) return
+                // A row stamped further back than the skew allows was missed; fetch the
+                // whole week once rather than leave it out of step
+                if (incremental && remoteDigests[week] != transactionStore.digestForWeek(week)) {
+                    if (!pullWeek(week, null)) return
+                }
+                repairDigest(week, remoteDigests[week])
+            }
+            // Only advanced once every changed week is in, so a failed pass is retried
+            syncPreferences.setTransactionWatermark(newWatermark)
+            Log.d(TAG, "Catch-up pulled ${changed.size} of $trackedCount weeks (watermark $watermark)")
+        } finally {
+            catchUpMutex.unlock()
         }
     }
 
+    /**
+     * Fetches one week — only rows with updatedAt at or after [since], or all of it when
+     * [since] is null — and applies them to Room in one transaction. Returns false if the
+     * fetch failed.
+     */
+    private suspend fun pullWeek(week: String, since: Long?): Boolean {
+        val path = "$TRANSACTIONS_BY_WEEK/$week"
+        val weekSnapshot = try {
+            withTimeoutOrNull(FETCH_TIMEOUT_MS) {
+                if (since != null) backend.getChildrenFrom(path, UPDATED_AT, since) else backend.get(path)
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to fetch week $week", e)
+            null
+        } ?: return false
+        transactionSync.reconcile(weekSnapshot)
+        return true
+    }
+
+    /**
+     * Rewrites a week's remote digest if it still disagrees after the week was pulled:
+     * weeks from before digests existed have none, and a digest written by two devices
+     * at once can be stale. Weeks with uploads still pending are left to the outbox.
+     */
+    private suspend fun repairDigest(week: String, remote: WeekDigest?) {
+        val local = transactionStore.digestForWeek(week) ?: return
+        if (local == remote || outboxDao.countUnder("$TRANSACTIONS_BY_WEEK/$week/") > 0) return
+        try {
+            backend.put(WeekDigest.path(week), local.encode())
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to write digest for $week", e)
+        }
+    }
+
+    private suspend fun readArchiveIndex(): Set<String>? {
+        val snapshot = try {
+            withTimeoutOrNull(FETCH_TIMEOUT_MS) { backend.get(WeekArchive.INDEX_NODE) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to read archive index", e)
+            null
+        } ?: return null
+        return snapshot.children.mapNotNull { it.key }.toHashSet()
+    }
+
+    // ── Archive ─────────────────────────────────────────────────────────
+
+    /**
+     * Moves closed weeks older than the archive horizon (see [SyncPreferences]) out of
+     * `transactions_by_week` into one [WeekArchive] each, so the live tree and the
+     * Firebase disk cache hold only recent weeks. Each week is one multi-path write that
+     * stores the archive, indexes it, and deletes exactly the rows that went into it and
+     * the week's digest; a row written by another device meanwhile stays live and is
+     * archived on a later pass. Rows edited after their week was archived are merged into
+     * the existing archive the same way. Weeks with uploads still pending are skipped.
+     * Local rows stay in Room.
+     */
+    suspend fun archiveClosedWeeks() {
+        val cutoff = weekCalculator.getWeekStartWeeksBefore(
+            weekCalculator.getCurrentWeekStart(), WeekArchive.HORIZON_WEEKS
+        )
+        val snapshot = try {
+            withTimeoutOrNull(FETCH_TIMEOUT_MS) {
+                backend.getKeyRange(TRANSACTIONS_BY_WEEK, "", weekCalculator.getPreviousWeekStart(cutoff))
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to read weeks to archive", e)
+            null
+        } ?: return
+
+        var archived = 0
+        for (weekSnapshot in snapshot.children) {
+            val week = weekSnapshot.key ?: continue
+            if (outboxDao.countUnder("$TRANSACTIONS_BY_WEEK/$week/") > 0) continue
+            val rows = weekSnapshot.children.mapNotNull { child ->
+                child.key?.let { TransactionCodec.decode(it, child.value) }
+            }
+            if (rows.isEmpty()) continue
+
+            try {
+                val existing = WeekArchive.decode(backend.get(WeekArchive.path(week)).value)
+                val savings = weeklySavingsDao.getSavingsForWeek(week)?.amountCents
+                val archive = existing?.merge(rows, savings) ?: WeekArchive.of(rows, savings)
+
+                val updates = HashMap<String, Any?>(rows.size + 3)
+                updates[WeekArchive.path(week)] = archive.encode()
+                updates[WeekArchive.indexPath(week)] = true
+                updates[WeekDigest.path(week)] = null
+                for (row in rows) updates[TransactionCodec.path(row)] = null
+                backend.update(updates)
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to archive week $week", e)
+                return
+            }
+            archived++
+        }
+        if (archived > 0) Log.d(TAG, "Archived $archived weeks older than $cutoff")
+    }
+
     private fun getAllLocalTransactions(): List<Transaction> {
         val cursor = appDb.openHelper.readableDatabase.query(
-            "SELECT id, weekStartDate, category, amount, isAdjustment, createdAt, details FROM transactions"
+            "SELECT id, weekStartDate, category, amountCents, isAdjustment, createdAt, details, updatedAt, isDeleted, syncId FROM transactions"
         )
         val results = mutableListOf<Transaction>()
         while (cursor.moveToNext()) {
@@ -219,10 +405,13 @@ class FirebaseSyncManager(context: Context) {
                     id = cursor.getLong(0),
                     weekStartDate = cursor.getString(1),
                     category = cursor.getString(2),
-                    amount = cursor.getDouble(3),
+                    amountCents = cursor.getLong(3),
                     isAdjustment = cursor.getInt(4) == 1,
                     createdAt = cursor.getLong(5),
-                    details = if (cursor.isNull(6)) null else cursor.getString(6)
+                    details = if (cursor.isNull(6)) null else cursor.getString(6),
+                    updatedAt = cursor.getLong(7),
+                    isDeleted = cursor.getInt(8) == 1,
+                    syncId = cursor.getString(9)
                 )
             )
         }
@@ -233,239 +422,188 @@ class FirebaseSyncManager(context: Context) {
     // ── Category sync ───────────────────────────────────────────────────
 
     fun pushCategory(category: CategoryEntity) {
-        if (suppressCategorySync) return
-        val data = mapOf(
-            "name" to category.name,
-            "displayName" to category.displayName,
-            "color" to category.color,
-            "isSystem" to category.isSystem
-        )
-        categoriesRef.child(category.name).setValue(data)
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to push category", e) }
+        categorySync.push(category)
     }
 
+    /** Call after the row has been deleted from Room; the outbox uploads the deletion. */
     fun deleteCategory(category: CategoryEntity) {
-        if (suppressCategorySync) return
-        categoriesRef.child(category.name).removeValue()
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to delete category from Firebase", e) }
+        categorySync.push(category)
     }
 
     fun startCategoryListener() {
-        categoriesRef.addValueEventListener(object : ValueEventListener {
-            override fun onDataChange(snapshot: DataSnapshot) {
-                scope.launch {
-                    suppressCategorySync = true
-                    try {
-                        syncCategoriesFromFirebase(snapshot)
-                    } finally {
-                        suppressCategorySync = false
-                    }
-                }
-            }
-
-            override fun onCancelled(error: DatabaseError) {
-                Log.e(TAG, "Category listener cancelled", error.toException())
-            }
-        })
-    }
-
-    private suspend fun syncCategoriesFromFirebase(snapshot: DataSnapshot) {
-        val remoteCategories = mutableMapOf<String, Map<String, Any?>>()
-        for (child in snapshot.children) {
-            val name = child.child("name").value as? String ?: continue
-            remoteCategories[name] = mapOf(
-                "name" to name,
-                "displayName" to (child.child("displayName").value as? String ?: name),
-                "color" to (child.child("color").value as? String ?: "#607D8B"),
-                "isSystem" to (child.child("isSystem").value as? Boolean ?: false)
-            )
-        }
-
-        val localCategories = categoryDao.getAllCategoriesSync()
-        val localByName = localCategories.associateBy { it.name }
-
-        // Insert or update remote categories locally
-        for ((name, data) in remoteCategories) {
-            val local = localByName[name]
-            val displayName = data["displayName"] as String
-            val color = data["color"] as String
-            val isSystem = data["isSystem"] as Boolean
-
-            if (local == null) {
-                categoryDao.insert(
-                    CategoryEntity(
-                        name = name,
-                        displayName = displayName,
-                        color = color,
-                        isSystem = isSystem
-                    )
-                )
-            } else if (local.displayName != displayName ||
-                local.color != color ||
-                local.isSystem != isSystem
-            ) {
-                categoryDao.update(
-                    local.copy(
-                        displayName = displayName,
-                        color = color,
-                        isSystem = isSystem
-                    )
-                )
-            }
-        }
-
-        // Delete local categories not in Firebase
-        // Skip if Firebase is empty — avoids race condition on first sync / fresh DB
-        // Never delete default seeded categories — they may not have been pushed yet
-        if (remoteCategories.isNotEmpty()) {
-            for (local in localCategories) {
-                if (local.name !in remoteCategories && local.name !in AppDatabase.DEFAULT_CATEGORY_NAMES) {
-                    categoryDao.delete(local)
-                }
-            }
-        }
+        keep(categorySync.listen())
     }
 
     // ── Savings sync ──────────────────────────────────────────────────────
 
     fun pushSavings(savings: WeeklySavings) {
-        if (suppressSavingsSync) return
-        savingsRef.child(savings.weekStartDate).setValue(savings.amount)
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to push savings", e) }
+        savingsSync.push(savings)
     }
 
-    fun deleteSavingsEntry(weekStartDate: String) {
-        savingsRef.child(weekStartDate).removeValue()
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to delete savings entry", e) }
+    fun pushAllSavings(savings: List<WeeklySavings>) {
+        if (savings.isNotEmpty()) savingsSync.pushAll(savings)
     }
 
-    fun startSavingsListener() {
-        savingsRef.addValueEventListener(object : ValueEventListener {
-            override fun onDataChange(snapshot: DataSnapshot) {
-                scope.launch {
-                    suppressSavingsSync = true
-                    try {
-                        syncSavingsFromFirebase(snapshot)
-                    } finally {
-                        suppressSavingsSync = false
-                    }
-                }
-            }
-
-            override fun onCancelled(error: DatabaseError) {
-                Log.e(TAG, "Savings listener cancelled", error.toException())
-            }
-        })
+    /** Call after the row has been deleted from Room; the outbox uploads the deletion. */
+    fun deleteSavingsEntry(weekStartDate: String) {
+        outbox.enqueue(OutboxEntry.COLLECTION_SAVINGS, weekStartDate)
     }
 
-    private suspend fun syncSavingsFromFirebase(snapshot: DataSnapshot) {
-        val remoteSavings = mutableMapOf<String, Double>()
-        for (child in snapshot.children) {
-            val weekStart = child.key ?: continue
-            val amount = child.value?.let { toDouble(it) } ?: continue
-            remoteSavings[weekStart] = amount
-        }
-
-        val localSavings = weeklySavingsDao.getAllSavingsSync()
-        val localByWeek = localSavings.associateBy { it.weekStartDate }
-
-        // Insert or update remote savings locally
-        for ((weekStart, amount) in remoteSavings) {
-            val local = localByWeek[weekStart]
-            if (local == null) {
-                weeklySavingsDao.upsert(WeeklySavings(weekStartDate = weekStart, amount = amount))
-            } else if (local.amount != amount) {
-                weeklySavingsDao.upsert(WeeklySavings(weekStartDate = weekStart, amount = amount))
-            }
-        }
-
-        // Delete local savings not in Firebase (only if Firebase has data)
-        if (remoteSavings.isNotEmpty()) {
-            for (local in localSavings) {
-                if (local.weekStartDate !in remoteSavings) {
-                    // Use raw delete since we only have upsert/deleteAll
-                    appDb.openHelper.writableDatabase.execSQL(
-                        "DELETE FROM weekly_savings WHERE weekStartDate = ?",
-                        arrayOf(local.weekStartDate)
-                    )
-                }
-            }
-        }
+    fun startSavingsListener() {
+        keep(savingsSync.listen())
     }
 
     // ── Budget sync ─────────────────────────────────────────────────────
 
     fun pushBudget(amount: Double, isSet: Boolean) {
         val data = mapOf(
+            "amountCents" to Money.toCents(amount),
+            // Still written for app versions that predate amountCents
             "amount" to amount,
             "isSet" to isSet
         )
-        budgetRef.setValue(data)
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to push budget", e) }
+        scope.launch {
+            try {
+                backend.put(BUDGET, data)
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to push budget", e)
+            }
+        }
     }
 
     fun startBudgetListener() {
-        budgetRef.addValueEventListener(object : ValueEventListener {
-            override fun onDataChange(snapshot: DataSnapshot) {
-                val amount = snapshot.child("amount").value?.let { toDouble(it) } ?: return
-                val isSet = snapshot.child("isSet").value as? Boolean ?: return
-
-                if (isSet) {
-                    val currentBudget = budgetPreferences.getBudget()
-                    val currentIsSet = budgetPreferences.isBudgetSet()
-                    if (currentBudget != amount || !currentIsSet) {
-                        budgetPreferences.setBudget(amount)
-                    }
-                }
+        keep(backend.listen(BUDGET, object : SyncBackend.ValueListener {
+            override fun onValue(snapshot: RemoteSnapshot) {
+                applyRemoteBudget(snapshot)
             }
 
-            override fun onCancelled(error: DatabaseError) {
-                Log.e(TAG, "Budget listener cancelled", error.toException())
+            override fun onCancelled(error: Exception) {
+                Log.e(TAG, "Budget listener cancelled", error)
             }
-        })
+        }))
+    }
+
+    private fun applyRemoteBudget(snapshot: RemoteSnapshot) {
+        val fields = snapshot.value as? Map<*, *> ?: return
+        val cents = (fields["amountCents"] as? Number)?.toLong() ?: run {
+            val amount = SnapshotDecoder.readDouble(fields["amount"])
+            if (amount.isNaN()) return
+            Money.toCents(amount)
+        }
+        val isSet = fields["isSet"] as? Boolean ?: return
+
+        if (isSet) {
+            val currentIsSet = budgetPreferences.isBudgetSet()
+            if (budgetPreferences.getBudgetCents() != cents || !currentIsSet) {
+                budgetPreferences.setBudget(Money.fromCents(cents))
+            }
+        }
     }
 
-    // ── Initial upload ──────────────────────────────────────────────────
+    // ── Full upload ─────────────────────────────────────────────────────
 
     /**
-     * Push all local data to Firebase. Called once at startup so that if this device
-     * has data and Firebase is empty, it populates the remote.
+     * Queues every local row for upload. Not run at startup: normal edits go through the
+     * outbox, so this is only needed to repopulate a remote that has lost its data.
      */
     fun pushAllLocalData() {
         scope.launch {
-            // Push all local transactions
-            val transactions = getAllLocalTransactions()
-            for (t in transactions) {
-                pushTransaction(t)
-            }
+            transactionSync.pushAll(getAllLocalTransactions())
+            categorySync.pushAll(categoryDao.getAllCategoriesSync())
+            savingsSync.pushAll(weeklySavingsDao.getAllSavingsSync())
 
-            // Push all local categories
-            val categories = categoryDao.getAllCategoriesSync()
-            for (c in categories) {
-                pushCategory(c)
-            }
-
-            // Push budget
             if (budgetPreferences.isBudgetSet()) {
                 pushBudget(budgetPreferences.getBudget(), true)
             }
-
-            // Push all local savings
-            val savings = weeklySavingsDao.getAllSavingsSync()
-            for (s in savings) {
-                pushSavings(s)
-            }
         }
     }
 
-    // ── Start all listeners ─────────────────────────────────────────────
+    // ── Start / stop listeners ──────────────────────────────────────────
 
+    /**
+     * Attaches the live listeners. Called while the main screen is in the foreground;
+     * the rest of the time [SyncWorker] runs [syncOnce] on a schedule instead.
+     */
     fun startListening() {
-        pushAllLocalData()
+        synchronized(listenerHandles) {
+            if (isListening) return
+            isListening = true
+        }
+        // Send anything left over from a previous session (e.g. edits made offline)
+        outbox.flush()
         startTransactionListener()
+        // Every (re)connect compares week digests and pulls only the weeks that changed
+        keep(backend.listenConnected { connected ->
+            if (connected) scope.launch { catchUpChangedWeeks() }
+        })
         startCategoryListener()
         startBudgetListener()
         startSavingsListener()
+        scope.launch { transactionSync.compactTombstones() }
+    }
+
+    /** Detaches everything [startListening] attached, letting the connection go idle. */
+    fun stopListening() {
+        val handles = synchronized(listenerHandles) {
+            isListening = false
+            listenerHandles.toList().also { listenerHandles.clear() }
+        }
+        handles.forEach { it.remove() }
+        // The app may be killed any time after this, so don't leave traffic buffered
+        (backend as? MeteredSyncBackend)?.let { scope.launch { it.flushNow() } }
+    }
+
+    // Listeners attached after stopListening() (the transaction listeners attach once the
+    // flat-layout migration is done) are removed straight away
+    private fun keep(handle: ListenerHandle) {
+        val attached = synchronized(listenerHandles) {
+            if (isListening) listenerHandles.add(handle)
+            isListening
+        }
+        if (!attached) handle.remove()
+    }
+
+    /**
+     * One batched sync without listeners: uploads the outbox, then pulls the live weeks,
+     * the weeks [catchUpChangedWeeks] finds changed, categories, savings and the budget,
+     * and finally archives weeks past the horizon. Returns false if anything could not be
+     * sent or read, so the caller can retry.
+     */
+    suspend fun syncOnce(): Boolean {
+        var ok = outbox.flushAndWait()
+        migrateFlatTransactions()
+        for (week in liveWeeks()) {
+            ok = pullWithTimeout(transactionSync, "$TRANSACTIONS_BY_WEEK/$week") && ok
+        }
+        catchUpChangedWeeks()
+        ok = pullWithTimeout(categorySync) && ok
+        ok = pullWithTimeout(savingsSync) && ok
+
+        val budget = try {
+            withTimeoutOrNull(FETCH_TIMEOUT_MS) { backend.get(BUDGET) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to read budget", e)
+            null
+        }
+        if (budget != null) applyRemoteBudget(budget) else ok = false
+
+        transactionSync.compactTombstones()
+        // Only from the background job: archiving reads every week past the horizon
+        // that is still live, which is usually none
+        archiveClosedWeeks()
+        (backend as? MeteredSyncBackend)?.flushNow()
+        return ok
+    }
+
+    private suspend fun pullWithTimeout(sync: SyncEngine<*>, path: String? = null): Boolean {
+        return withTimeoutOrNull(FETCH_TIMEOUT_MS) {
+            if (path != null) sync.pull(path) else sync.pull()
+        } ?: false
+    }
+
+    private fun liveWeeks(): List<String> {
+        val currentWeek = weekCalculator.getCurrentWeekStart()
+        return listOf(currentWeek, weekCalculator.getPreviousWeekStart(currentWeek))
     }
 
     // ── Reset ─────────────────────────────────────────────────────────
@@ -475,24 +613,13 @@ class FirebaseSyncManager(context: Context) {
      * Other synced devices will pick up the deletion via their listeners.
      */
     fun clearAllData(onComplete: (() -> Unit)? = null) {
-        rootRef.removeValue()
-            .addOnSuccessListener { onComplete?.invoke() }
-            .addOnFailureListener { e ->
+        scope.launch {
+            try {
+                backend.delete("")
+            } catch (e: Exception) {
                 Log.e(TAG, "Failed to clear Firebase data", e)
-                onComplete?.invoke()
             }
-    }
-
-    // ── Utility ─────────────────────────────────────────────────────────
-
-    private fun toDouble(value: Any): Double {
-        return when (value) {
-            is Double -> value
-            is Long -> value.toDouble()
-            is Float -> value.toDouble()
-            is Int -> value.toDouble()
-            is String -> value.toDoubleOrNull() ?: 0.0
-            else -> 0.0
+            onComplete?.invoke()
         }
     }
 }
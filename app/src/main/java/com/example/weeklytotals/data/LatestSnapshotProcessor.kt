@@ -0,0 +1,39 @@
+package com.example.weeklytotals.data
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * Single consumer for one synced collection's snapshots.
+ *
+ * [submit] never blocks: snapshots go into a conflated channel, so while a reconcile is
+ * running only the newest one waits and the ones in between are dropped. Reconciles for
+ * the same collection therefore never overlap and never redo superseded work.
+ */
+class LatestSnapshotProcessor<T>(
+    scope: CoroutineScope,
+    context: CoroutineContext = EmptyCoroutineContext,
+    private val process: suspend (T) -> Unit
+) {
+    private val pending = Channel<T>(Channel.CONFLATED)
+
+    init {
+        scope.launch(context) {
+            for (snapshot in pending) {
+                process(snapshot)
+            }
+        }
+    }
+
+    fun submit(snapshot: T) {
+        pending.trySend(snapshot)
+    }
+
+    /** Ends the consumer once any snapshot it is processing is done; later submits are dropped. */
+    fun close() {
+        pending.close()
+    }
+}
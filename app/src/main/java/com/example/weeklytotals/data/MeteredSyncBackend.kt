@@ -0,0 +1,206 @@
+package com.example.weeklytotals.data
+
+import android.content.Context
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.time.LocalDate
+
+/**
+ * [SyncBackend] that counts the traffic passing through [delegate] into the
+ * `sync_traffic` table, per day, top-level collection and direction.
+ *
+ * Sizes are estimates: the length of each value as JSON, which is roughly what the
+ * Firebase wire protocol carries before compression. A value listener is counted at the
+ * size of the full snapshot it delivers, although Firebase may only have sent the change.
+ * Counts are buffered in memory and written at most every [FLUSH_DELAY_MS], and at once
+ * by [flushNow], which the sync managers call when a sync pass ends or their listeners
+ * detach, so a background run's traffic is stored before the process can be killed.
+ */
+class MeteredSyncBackend(
+    private val delegate: SyncBackend,
+    private val trafficDao: SyncTrafficDao
+) : SyncBackend {
+
+    private val scope = CoroutineScope(Dispatchers.IO)
+    private val pending = HashMap<Triple<String, String, String>, LongArray>()
+    private var flushJob: Job? = null
+
+    companion object {
+        private const val TAG = "MeteredSyncBackend"
+        private const val FLUSH_DELAY_MS = 30_000L
+        private const val RETENTION_DAYS = 90L
+
+        @Volatile
+        private var INSTANCE: MeteredSyncBackend? = null
+
+        fun getInstance(context: Context): MeteredSyncBackend {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: MeteredSyncBackend(
+                    FirebaseSyncBackend.getInstance(),
+                    AppDatabase.getInstance(context).syncTrafficDao()
+                ).also { INSTANCE = it }
+            }
+        }
+
+        /** Top-level node a path belongs to; split data is counted per sub-node. */
+        fun collectionOf(path: String): String {
+            val segments = path.split('/').filter { it.isNotEmpty() }
+            return when {
+                segments.isEmpty() -> "(root)"
+                segments[0] == "split" && segments.size > 1 -> "split/${segments[1]}"
+                else -> segments[0]
+            }
+        }
+
+        /** Length of [value] serialised as JSON, in UTF-8 bytes (escapes not counted). */
+        fun jsonSize(value: Any?): Long {
+            return when (value) {
+                null -> 4
+                is String -> value.toByteArray(Charsets.UTF_8).size + 2L
+                is Boolean -> if (value) 4 else 5
+                is Number -> value.toString().length.toLong()
+                is Map<*, *> -> {
+                    var size = 2L + (value.size - 1).coerceAtLeast(0)
+                    for ((k, v) in value) size += jsonSize(k.toString()) + 1 + jsonSize(v)
+                    size
+                }
+                is Collection<*> -> {
+                    var size = 2L + (value.size - 1).coerceAtLeast(0)
+                    for (v in value) size += jsonSize(v)
+                    size
+                }
+                else -> jsonSize(value.toString())
+            }
+        }
+    }
+
+    // ── Counting ────────────────────────────────────────────────────
+
+    private fun record(path: String, direction: String, bytes: Long) {
+        val key = Triple(LocalDate.now().toString(), collectionOf(path), direction)
+        synchronized(pending) {
+            val counts = pending.getOrPut(key) { LongArray(2) }
+            counts[0] += bytes
+            counts[1]++
+            if (flushJob == null) {
+                flushJob = scope.launch {
+                    delay(FLUSH_DELAY_MS)
+                    flush()
+                }
+            }
+        }
+    }
+
+    private fun download(path: String, snapshot: RemoteSnapshot) {
+        record(path, SyncTraffic.DIRECTION_DOWN, jsonSize(snapshot.value))
+    }
+
+    /** Writes the buffered counts now; the delayed flush then finds nothing left to write. */
+    suspend fun flushNow() {
+        flush()
+    }
+
+    private suspend fun flush() {
+        val counts = synchronized(pending) {
+            flushJob = null
+            pending.map { (key, c) -> SyncTraffic(key.first, key.second, key.third, c[0], c[1]) }
+                .also { pending.clear() }
+        }
+        if (counts.isEmpty()) return
+        try {
+            trafficDao.addAll(counts)
+            trafficDao.deleteBefore(LocalDate.now().minusDays(RETENTION_DAYS).toString())
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to store sync traffic", e)
+        }
+    }
+
+    // ── SyncBackend ─────────────────────────────────────────────────
+
+    override fun listen(path: String, listener: SyncBackend.ValueListener): ListenerHandle {
+        return delegate.listen(path, meteredValueListener(path, listener))
+    }
+
+    override fun listenOnce(path: String, listener: SyncBackend.ValueListener) {
+        delegate.listenOnce(path, meteredValueListener(path, listener))
+    }
+
+    private fun meteredValueListener(path: String, listener: SyncBackend.ValueListener): SyncBackend.ValueListener {
+        return object : SyncBackend.ValueListener {
+            override fun onValue(snapshot: RemoteSnapshot) {
+                download(path, snapshot)
+                listener.onValue(snapshot)
+            }
+
+            override fun onCancelled(error: Exception) {
+                listener.onCancelled(error)
+            }
+        }
+    }
+
+    override fun listenChildren(path: String, listener: SyncBackend.ChildListener): ListenerHandle {
+        return delegate.listenChildren(path, object : SyncBackend.ChildListener {
+            override fun onChildAdded(snapshot: RemoteSnapshot) {
+                download(path, snapshot)
+                listener.onChildAdded(snapshot)
+            }
+
+            override fun onChildChanged(snapshot: RemoteSnapshot) {
+                download(path, snapshot)
+                listener.onChildChanged(snapshot)
+            }
+
+            override fun onChildRemoved(snapshot: RemoteSnapshot) {
+                // Firebase sends only the key of a removed child
+                record(path, SyncTraffic.DIRECTION_DOWN, jsonSize(snapshot.key))
+                listener.onChildRemoved(snapshot)
+            }
+
+            override fun onCancelled(error: Exception) {
+                listener.onCancelled(error)
+            }
+        })
+    }
+
+    // Local connection state; no traffic
+    override fun listenConnected(listener: (Boolean) -> Unit) = delegate.listenConnected(listener)
+
+    override suspend fun get(path: String): RemoteSnapshot {
+        return delegate.get(path).also { download(path, it) }
+    }
+
+    override suspend fun getKeyRange(path: String, startKey: String, endKey: String): RemoteSnapshot {
+        return delegate.getKeyRange(path, startKey, endKey).also { download(path, it) }
+    }
+
+    override suspend fun getChildrenFrom(path: String, child: String, start: Long): RemoteSnapshot {
+        return delegate.getChildrenFrom(path, child, start).also { download(path, it) }
+    }
+
+    override suspend fun put(path: String, value: Any?) {
+        delegate.put(path, value)
+        record(path, SyncTraffic.DIRECTION_UP, jsonSize(path) + jsonSize(value))
+    }
+
+    override suspend fun delete(path: String) {
+        delegate.delete(path)
+        record(path, SyncTraffic.DIRECTION_UP, jsonSize(path))
+    }
+
+    /** Counted once per collection the write touches, at the size of its paths and values. */
+    override suspend fun update(updates: Map<String, Any?>) {
+        delegate.update(updates)
+        val byCollection = HashMap<String, Long>()
+        for ((path, value) in updates) {
+            val collection = collectionOf(path)
+            byCollection[collection] = (byCollection[collection] ?: 0L) + jsonSize(path) + 1 + jsonSize(value)
+        }
+        for ((collection, bytes) in byCollection) {
+            record(collection, SyncTraffic.DIRECTION_UP, bytes)
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.weeklytotals.data
+
+import java.math.BigDecimal
+import java.math.RoundingMode
+
+/**
+ * Amounts are stored, synced and summed as whole cents so totals are exact and two
+ * copies of the same amount always compare equal. Doubles only appear at the edges:
+ * user input, display, and the legacy `amount` field older app versions still read.
+ */
+object Money {
+
+    // BigDecimal.valueOf goes through the shortest decimal string, so 1.005 rounds to 101
+    // cents rather than to the 100 that 1.005 * 100 would give
+    fun toCents(amount: Double): Long {
+        return BigDecimal.valueOf(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).toLong()
+    }
+
+    fun fromCents(cents: Long): Double = cents / 100.0
+}
@@ -0,0 +1,42 @@
+package com.example.weeklytotals.data
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+
+@Dao
+interface OutboxDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun upsert(entry: OutboxEntry)
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun upsertAll(entries: List<OutboxEntry>)
+
+    @Query("SELECT * FROM sync_outbox ORDER BY enqueuedAt ASC")
+    suspend fun getAll(): List<OutboxEntry>
+
+    @Query("SELECT entityKey FROM sync_outbox WHERE collection = :collection")
+    suspend fun getPendingKeys(collection: String): List<String>
+
+    @Query("SELECT COUNT(*) FROM sync_outbox WHERE path LIKE :prefix || '%'")
+    suspend fun countUnder(prefix: String): Int
+
+    @Query("DELETE FROM sync_outbox WHERE path = :path AND enqueuedAt = :enqueuedAt")
+    suspend fun deleteIfUnchanged(path: String, enqueuedAt: Long)
+
+    /**
+     * Removes entries that were uploaded, leaving any that were re-enqueued while the
+     * upload was in flight so their newer state goes out on the next flush.
+     */
+    @androidx.room.Transaction
+    suspend fun deleteFlushed(entries: List<OutboxEntry>) {
+        for (entry in entries) {
+            deleteIfUnchanged(entry.path, entry.enqueuedAt)
+        }
+    }
+
+    @Query("DELETE FROM sync_outbox")
+    suspend fun deleteAll()
+}
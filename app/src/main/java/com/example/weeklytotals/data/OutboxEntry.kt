@@ -0,0 +1,24 @@
+package com.example.weeklytotals.data
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * A local change that still has to reach Firebase. One row per remote path, so repeated
+ * edits to the same record collapse into a single upload of its latest state.
+ */
+@Entity(tableName = "sync_outbox")
+data class OutboxEntry(
+    @PrimaryKey val path: String,   // relative to weekly_totals/, e.g. "categories/GAS"
+    val collection: String,         // one of the COLLECTION_* constants
+    val entityKey: String,          // key used to read the row back from Room at flush time
+    val enqueuedAt: Long            // bumped on every enqueue; guards against dropping a newer edit
+) {
+    companion object {
+        const val COLLECTION_TRANSACTIONS = "transactions"
+        const val COLLECTION_CATEGORIES = "categories"
+        const val COLLECTION_SAVINGS = "savings"
+        const val COLLECTION_SPLIT_ENTRIES = "split/entries"
+        const val COLLECTION_SPLIT_CATEGORIES = "split/categories"
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.weeklytotals.data
+
+import androidx.room.Dao
+import androidx.room.Query
+
+/** Reads of the trigger-maintained rollups (see [CategoryRollups]); one row per category. */
+@Dao
+interface RollupDao {
+
+    /** The week's total in cents, adjustments included, deleted rows not. */
+    @Query("SELECT COALESCE(SUM(totalCents), 0) FROM rollup_week_category WHERE weekKey = :weekKey")
+    suspend fun getWeekTotalCents(weekKey: Long): Long
+
+    /**
+     * One row per week in [fromWeekKey, toWeekKey] that has transactions: its total in
+     * cents, adjustments included, and whether it already has an adjustment.
+     */
+    @Query(
+        """SELECT weekKey, SUM(totalCents) AS totalCents, MAX(category = 'ADJUSTMENT') AS hasAdjustment
+            FROM rollup_week_category WHERE weekKey BETWEEN :fromWeekKey AND :toWeekKey GROUP BY weekKey"""
+    )
+    suspend fun getWeekTotals(fromWeekKey: Long, toWeekKey: Long): List<WeekTotal>
+
+    /** The first week with transactions; week key 0 (an unparseable date) doesn't count. */
+    @Query("SELECT MIN(weekKey) FROM rollup_week_category WHERE weekKey > 0")
+    suspend fun getEarliestWeekKey(): Long?
+
+    /** [yearMonth] as from [WeekCalculator.yearMonthOf], e.g. 202403. */
+    @Query("SELECT category, totalCents / 100.0 AS total FROM rollup_month_category WHERE yearMonth = :yearMonth")
+    suspend fun getCategoryTotalsForMonth(yearMonth: Int): List<CategoryTotal>
+
+    @Query("SELECT category, totalCents / 100.0 AS total FROM rollup_year_category WHERE year = :year")
+    suspend fun getCategoryTotalsForYear(year: Int): List<CategoryTotal>
+
+    /**
+     * Years that have any transactions, adjustment-only years included, newest first. Read
+     * from the week rollup because the year rollup leaves adjustments out; a year is that
+     * of its weeks' start dates, as in [WeekCalculator.yearOf]. Week key 0 (a date that
+     * could not be parsed) is not a year.
+     */
+    @Query(
+        """SELECT DISTINCT CAST(strftime('%Y', weekKey * 86400, 'unixepoch') AS INTEGER) AS year
+            FROM rollup_week_category WHERE weekKey > 0 ORDER BY year DESC"""
+    )
+    suspend fun getYears(): List<Int>
+}
@@ -0,0 +1,98 @@
+package com.example.weeklytotals.data
+
+/**
+ * Decodes sync payloads from the plain values Firebase hands out (`DataSnapshot.value`:
+ * nested `Map<String, Any?>`, `String`, `Long`, `Double`, `Boolean`).
+ *
+ * A whole node is decoded from one `snapshot.value` instead of walking `snapshot.children`
+ * and calling `child(...)` per field, which allocates a DataSnapshot and a path for every
+ * field read. Each child becomes its Room entity directly, with no intermediate record;
+ * numbers are read without boxing, and a malformed child is rejected before anything is
+ * allocated for it.
+ */
+object SnapshotDecoder {
+
+    // Sentinels for "missing or wrong type", so reads don't need a boxed Long?/Double?
+    private const val NO_LONG = Long.MIN_VALUE
+
+    /** [syncId] is the remote child key. */
+    fun decodeTransaction(syncId: String, raw: Any?): Transaction? {
+        val fields = raw as? Map<*, *> ?: return null
+        val createdAt = readLong(fields["createdAt"])
+        if (createdAt == NO_LONG) return null
+        val weekStartDate = fields["weekStartDate"] as? String ?: return null
+        val category = fields["category"] as? String ?: return null
+        val amountCents = readCents(fields)
+        if (amountCents == NO_LONG) return null
+        return Transaction(
+            weekStartDate = weekStartDate,
+            category = category,
+            amountCents = amountCents,
+            isAdjustment = fields["isAdjustment"] as? Boolean ?: false,
+            createdAt = createdAt,
+            details = fields["details"] as? String,
+            updatedAt = readUpdatedAt(fields, createdAt),
+            isDeleted = fields["isDeleted"] as? Boolean ?: false,
+            syncId = syncId
+        )
+    }
+
+    /** [syncId] is the remote child key. */
+    fun decodeSplitEntry(syncId: String, raw: Any?): SplitEntry? {
+        val fields = raw as? Map<*, *> ?: return null
+        val createdAt = readLong(fields["createdAt"])
+        if (createdAt == NO_LONG) return null
+        val category = fields["category"] as? String ?: return null
+        val amountCents = readCents(fields)
+        if (amountCents == NO_LONG) return null
+        return SplitEntry(
+            category = category,
+            amountCents = amountCents,
+            comment = fields["comment"] as? String ?: return null,
+            splitType = fields["splitType"] as? String ?: return null,
+            createdByEmail = fields["createdByEmail"] as? String ?: return null,
+            createdAt = createdAt,
+            updatedAt = readUpdatedAt(fields, createdAt),
+            isDeleted = fields["isDeleted"] as? Boolean ?: false,
+            syncId = syncId
+        )
+    }
+
+    // Rows written before tombstones existed have no updatedAt; they were last changed
+    // no later than when they were created as far as anyone can tell
+    private fun readUpdatedAt(fields: Map<*, *>, createdAt: Long): Long {
+        val updatedAt = readLong(fields["updatedAt"])
+        return if (updatedAt == NO_LONG) createdAt else updatedAt
+    }
+
+    // Current writers send amountCents; rows from older app versions only have the
+    // dollar amount, which is rounded to the nearest cent
+    private fun readCents(fields: Map<*, *>): Long {
+        val cents = readLong(fields["amountCents"])
+        if (cents != NO_LONG) return cents
+        val amount = readDouble(fields["amount"])
+        return if (amount.isNaN()) NO_LONG else Money.toCents(amount)
+    }
+
+    private fun readLong(value: Any?): Long {
+        return when (value) {
+            is Long -> value
+            is Double -> value.toLong()
+            is Int -> value.toLong()
+            else -> NO_LONG
+        }
+    }
+
+    // Numbers and numeric strings as a Double; NaN when missing, 0.0 for anything else
+    internal fun readDouble(value: Any?): Double {
+        return when (value) {
+            is Double -> value
+            is Long -> value.toDouble()
+            is Float -> value.toDouble()
+            is Int -> value.toDouble()
+            is String -> value.toDoubleOrNull() ?: 0.0
+            null -> Double.NaN
+            else -> 0.0
+        }
+    }
+}
@@ -30,6 +30,9 @@ interface SplitCategoryDao {
     @Delete
     suspend fun delete(category: SplitCategory)
 
+    @Query("DELETE FROM split_categories WHERE name IN (:names)")
+    suspend fun deleteByNames(names: List<String>): Int
+
     @Query("DELETE FROM split_categories")
     suspend fun deleteAll()
 }
@@ -1,18 +1,28 @@
 package com.example.weeklytotals.data
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 
-@Entity(tableName = "split_entries")
+// syncId is the Firebase key, so it is unique and every remote change is a point lookup
+@Entity(tableName = "split_entries", indices = [Index(value = ["syncId"], unique = true)])
 data class SplitEntry(
     @PrimaryKey(autoGenerate = true) val id: Long = 0,
     val category: String,
-    val amount: Double,           // always positive
+    val amountCents: Long,        // always positive
     val comment: String,          // required
     val splitType: String,        // EQUAL, I_OWE, THEY_OWE, SETTLEMENT
     val createdByEmail: String,   // who logged it
-    val createdAt: Long = System.currentTimeMillis()
+    val createdAt: Long = System.currentTimeMillis(),
+    // Bumped on every local change; the newer side wins when two devices edit a row
+    val updatedAt: Long = createdAt,
+    // Deleted rows are kept as tombstones so the delete syncs like any other change
+    val isDeleted: Boolean = false,
+    // Device-scoped sortable id (see SyncId); rows from before it existed use createdAt
+    val syncId: String = SyncId.next(createdAt)
 ) {
+    val amount: Double get() = Money.fromCents(amountCents)
+
     companion object {
         const val TYPE_EQUAL = "EQUAL"
         const val TYPE_I_OWE = "I_OWE"
@@ -4,6 +4,7 @@ import androidx.lifecycle.LiveData
 import androidx.room.Dao
 import androidx.room.Delete
 import androidx.room.Insert
+import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import androidx.room.Update
 
@@ -18,14 +19,69 @@ interface SplitEntryDao {
     @Delete
     suspend fun delete(entry: SplitEntry)
 
-    @Query("SELECT * FROM split_entries ORDER BY createdAt DESC")
+    @Query("DELETE FROM split_entries WHERE syncId IN (:syncIds)")
+    suspend fun deleteAllBySyncId(syncIds: List<String>): Int
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertOrIgnore(entry: SplitEntry): Long
+
+    // Only touches the row if something differs, so an unchanged row is not written, and
+    // never lets an older version overwrite a newer one
+    @Query(
+        """UPDATE split_entries SET category = :category, amountCents = :amountCents, comment = :comment,
+            splitType = :splitType, createdByEmail = :createdByEmail, updatedAt = :updatedAt,
+            isDeleted = :isDeleted
+            WHERE syncId = :syncId AND updatedAt <= :updatedAt AND NOT (category = :category
+            AND amountCents = :amountCents AND comment = :comment AND splitType = :splitType
+            AND createdByEmail = :createdByEmail AND updatedAt = :updatedAt AND isDeleted = :isDeleted)"""
+    )
+    suspend fun updateBySyncId(
+        syncId: String,
+        category: String,
+        amountCents: Long,
+        comment: String,
+        splitType: String,
+        createdByEmail: String,
+        updatedAt: Long,
+        isDeleted: Boolean
+    ): Int
+
+    /**
+     * Inserts [entry], or updates the existing row with the same syncId in place
+     * (keeping its id) unless the local row is newer. Both steps are single lookups on the
+     * unique syncId index.
+     */
+    @androidx.room.Transaction
+    suspend fun upsertBySyncId(entry: SplitEntry): UpsertResult {
+        if (insertOrIgnore(entry) != -1L) return UpsertResult.INSERTED
+        val changed = updateBySyncId(
+            entry.syncId,
+            entry.category,
+            entry.amountCents,
+            entry.comment,
+            entry.splitType,
+            entry.createdByEmail,
+            entry.updatedAt,
+            entry.isDeleted
+        )
+        return if (changed > 0) UpsertResult.UPDATED else UpsertResult.UNCHANGED
+    }
+
+    /** Turns the row into a tombstone; push it afterwards so the delete reaches Firebase. */
+    @Query("UPDATE split_entries SET isDeleted = 1, updatedAt = :updatedAt WHERE syncId = :syncId")
+    suspend fun markDeleted(syncId: String, updatedAt: Long = System.currentTimeMillis())
+
+    @Query("SELECT * FROM split_entries WHERE isDeleted = 1 AND updatedAt < :before")
+    suspend fun getTombstonesBefore(before: Long): List<SplitEntry>
+
+    @Query("SELECT * FROM split_entries WHERE isDeleted = 0 ORDER BY createdAt DESC")
     fun getAllEntries(): LiveData<List<SplitEntry>>
 
-    @Query("SELECT * FROM split_entries ORDER BY createdAt DESC")
+    @Query("SELECT * FROM split_entries WHERE isDeleted = 0 ORDER BY createdAt DESC")
     suspend fun getAllEntriesSync(): List<SplitEntry>
 
-    @Query("SELECT * FROM split_entries WHERE createdAt = :createdAt LIMIT 1")
-    suspend fun getEntryByCreatedAt(createdAt: Long): SplitEntry?
+    @Query("SELECT * FROM split_entries WHERE syncId = :syncId LIMIT 1")
+    suspend fun getEntryBySyncId(syncId: String): SplitEntry?
 
     @Query("DELETE FROM split_entries")
     suspend fun deleteAll()
@@ -2,41 +2,38 @@ package com.example.weeklytotals.data
 
 import android.content.Context
 import android.util.Log
-import com.google.firebase.database.DataSnapshot
-import com.google.firebase.database.DatabaseError
-import com.google.firebase.database.DatabaseReference
-import com.google.firebase.database.FirebaseDatabase
-import com.google.firebase.database.ValueEventListener
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 
-class SplitSyncManager(context: Context) {
+class SplitSyncManager(
+    context: Context,
+    private val backend: SyncBackend = MeteredSyncBackend.getInstance(context),
+    private val appDb: AppDatabase = AppDatabase.getInstance(context),
+    private val outbox: SyncOutbox = SyncOutbox.getInstance(context)
+) {
 
-    private val db = FirebaseDatabase.getInstance()
-    private val rootRef: DatabaseReference = db.getReference("weekly_totals").child("split")
-    private val entriesRef: DatabaseReference = rootRef.child("entries")
-    private val categoriesRef: DatabaseReference = rootRef.child("categories")
-
-    private val appDb = AppDatabase.getInstance(context)
     private val entryDao = appDb.splitEntryDao()
     private val categoryDao = appDb.splitCategoryDao()
 
     private val scope = CoroutineScope(Dispatchers.IO)
 
-    @Volatile
-    private var suppressEntrySync = false
-    @Volatile
-    private var suppressCategorySync = false
+    private val entrySync = SyncEngine(SyncCollection(SplitEntryCodec, SplitEntryStore(appDb)), backend, appDb, outbox, scope)
+    private val categorySync = SyncEngine(SyncCollection(SplitCategoryCodec, SplitCategoryStore(appDb)), backend, appDb, outbox, scope)
+
+    // Listeners attached by startListening(), detached again by stopListening()
+    private val listenerHandles = mutableListOf<ListenerHandle>()
     @Volatile
     private var isListening = false
 
-    /** Completes after the first onDataChange from the entry listener. */
+    /** Completes after the first reconcile of split entries. */
     val initialSyncComplete = CompletableDeferred<Unit>()
 
     companion object {
         private const val TAG = "SplitSyncManager"
+        private const val FETCH_TIMEOUT_MS = 10_000L
 
         @Volatile
         private var INSTANCE: SplitSyncManager? = null
@@ -51,268 +48,99 @@ class SplitSyncManager(context: Context) {
     // ── Entry sync ──────────────────────────────────────────────────
 
     fun pushEntry(entry: SplitEntry) {
-        if (suppressEntrySync) {
-            Log.d(TAG, "pushEntry suppressed for ${entry.createdAt}")
-            return
-        }
-        val key = entry.createdAt.toString()
-        val data = mapOf<String, Any?>(
-            "category" to entry.category,
-            "amount" to entry.amount,
-            "comment" to entry.comment,
-            "splitType" to entry.splitType,
-            "createdByEmail" to entry.createdByEmail,
-            "createdAt" to entry.createdAt
-        )
-        Log.d(TAG, "Pushing entry $key to split/entries/")
-        entriesRef.child(key).setValue(data)
-            .addOnSuccessListener { Log.d(TAG, "Push entry $key SUCCESS") }
-            .addOnFailureListener { e -> Log.e(TAG, "Push entry $key FAILED", e) }
+        Log.d(TAG, "Queueing entry ${entry.syncId} for split/entries/")
+        entrySync.push(entry)
     }
 
+    /** Call with the row after it has been marked deleted; the outbox uploads the tombstone. */
     fun deleteEntry(entry: SplitEntry) {
-        if (suppressEntrySync) return
-        val key = entry.createdAt.toString()
-        entriesRef.child(key).removeValue()
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to delete split entry from Firebase", e) }
+        entrySync.push(entry)
     }
 
     fun startEntryListener() {
         Log.d(TAG, "Starting entry listener on split/entries/")
-        entriesRef.addValueEventListener(object : ValueEventListener {
-            override fun onDataChange(snapshot: DataSnapshot) {
-                Log.d(TAG, "Entry listener onDataChange: ${snapshot.childrenCount} children")
-                scope.launch {
-                    suppressEntrySync = true
-                    try {
-                        syncEntriesFromFirebase(snapshot)
-                    } finally {
-                        suppressEntrySync = false
-                        initialSyncComplete.complete(Unit)
-                    }
-                }
-            }
-
-            override fun onCancelled(error: DatabaseError) {
-                Log.e(TAG, "Split entry listener cancelled: ${error.message}", error.toException())
-                initialSyncComplete.complete(Unit)
-            }
-        })
-    }
-
-    private suspend fun syncEntriesFromFirebase(snapshot: DataSnapshot) {
-        val remoteEntries = mutableMapOf<Long, Map<String, Any?>>()
-        for (child in snapshot.children) {
-            val createdAt = when (val raw = child.child("createdAt").value) {
-                is Long -> raw
-                is Double -> raw.toLong()
-                else -> continue
-            }
-            remoteEntries[createdAt] = mapOf(
-                "category" to (child.child("category").value as? String ?: continue),
-                "amount" to (child.child("amount").value?.let { toDouble(it) } ?: continue),
-                "comment" to (child.child("comment").value as? String ?: continue),
-                "splitType" to (child.child("splitType").value as? String ?: continue),
-                "createdByEmail" to (child.child("createdByEmail").value as? String ?: continue),
-                "createdAt" to createdAt
-            )
-        }
-
-        val localEntries = entryDao.getAllEntriesSync()
-        // Deduplicate: if multiple local entries have same createdAt, keep only the first
-        val localByCreatedAt = mutableMapOf<Long, SplitEntry>()
-        for (entry in localEntries) {
-            if (entry.createdAt in localByCreatedAt) {
-                // Duplicate — delete it
-                entryDao.delete(entry)
-                Log.d(TAG, "Deleted duplicate local entry with createdAt=${entry.createdAt}")
-            } else {
-                localByCreatedAt[entry.createdAt] = entry
-            }
-        }
-
-        // Insert or update remote entries locally
-        for ((createdAt, data) in remoteEntries) {
-            val local = localByCreatedAt[createdAt]
-            val category = data["category"] as String
-            val amount = data["amount"] as Double
-            val comment = data["comment"] as String
-            val splitType = data["splitType"] as String
-            val createdByEmail = data["createdByEmail"] as String
-
-            if (local == null) {
-                entryDao.insert(
-                    SplitEntry(
-                        category = category,
-                        amount = amount,
-                        comment = comment,
-                        splitType = splitType,
-                        createdByEmail = createdByEmail,
-                        createdAt = createdAt
-                    )
-                )
-            } else if (local.category != category ||
-                local.amount != amount ||
-                local.comment != comment ||
-                local.splitType != splitType ||
-                local.createdByEmail != createdByEmail
-            ) {
-                entryDao.update(
-                    local.copy(
-                        category = category,
-                        amount = amount,
-                        comment = comment,
-                        splitType = splitType,
-                        createdByEmail = createdByEmail
-                    )
-                )
-            }
-        }
-
-        // Delete local entries not in Firebase
-        if (remoteEntries.isNotEmpty()) {
-            for (local in localEntries) {
-                if (local.createdAt !in remoteEntries) {
-                    entryDao.delete(local)
-                }
-            }
-        }
+        keep(entrySync.listen(onReconciled = { initialSyncComplete.complete(Unit) }))
     }
 
     // ── Category sync ───────────────────────────────────────────────
 
     fun pushCategory(category: SplitCategory) {
-        if (suppressCategorySync) return
-        val data = mapOf(
-            "name" to category.name,
-            "displayName" to category.displayName,
-            "color" to category.color,
-            "isSystem" to category.isSystem
-        )
-        categoriesRef.child(category.name).setValue(data)
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to push split category", e) }
+        categorySync.push(category)
     }
 
+    /** Call after the row has been deleted from Room; the outbox uploads the deletion. */
     fun deleteCategory(category: SplitCategory) {
-        if (suppressCategorySync) return
-        categoriesRef.child(category.name).removeValue()
-            .addOnFailureListener { e -> Log.e(TAG, "Failed to delete split category from Firebase", e) }
+        categorySync.push(category)
     }
 
     fun startCategoryListener() {
-        categoriesRef.addValueEventListener(object : ValueEventListener {
-            override fun onDataChange(snapshot: DataSnapshot) {
-                scope.launch {
-                    suppressCategorySync = true
-                    try {
-                        syncCategoriesFromFirebase(snapshot)
-                    } finally {
-                        suppressCategorySync = false
-                    }
-                }
-            }
-
-            override fun onCancelled(error: DatabaseError) {
-                Log.e(TAG, "Split category listener cancelled", error.toException())
-            }
-        })
-    }
-
-    private suspend fun syncCategoriesFromFirebase(snapshot: DataSnapshot) {
-        val remoteCategories = mutableMapOf<String, Map<String, Any?>>()
-        for (child in snapshot.children) {
-            val name = child.child("name").value as? String ?: continue
-            remoteCategories[name] = mapOf(
-                "name" to name,
-                "displayName" to (child.child("displayName").value as? String ?: name),
-                "color" to (child.child("color").value as? String ?: "#607D8B"),
-                "isSystem" to (child.child("isSystem").value as? Boolean ?: false)
-            )
-        }
-
-        val localCategories = categoryDao.getAllCategoriesSync()
-        val localByName = localCategories.associateBy { it.name }
-
-        // Insert or update remote categories locally
-        for ((name, data) in remoteCategories) {
-            val local = localByName[name]
-            val displayName = data["displayName"] as String
-            val color = data["color"] as String
-            val isSystem = data["isSystem"] as Boolean
-
-            if (local == null) {
-                categoryDao.insert(
-                    SplitCategory(
-                        name = name,
-                        displayName = displayName,
-                        color = color,
-                        isSystem = isSystem
-                    )
-                )
-            } else if (local.displayName != displayName ||
-                local.color != color ||
-                local.isSystem != isSystem
-            ) {
-                categoryDao.update(
-                    local.copy(
-                        displayName = displayName,
-                        color = color,
-                        isSystem = isSystem
-                    )
-                )
-            }
-        }
-
-        // Delete local categories not in Firebase (skip defaults)
-        if (remoteCategories.isNotEmpty()) {
-            for (local in localCategories) {
-                if (local.name !in remoteCategories && local.name !in AppDatabase.DEFAULT_SPLIT_CATEGORY_NAMES) {
-                    categoryDao.delete(local)
-                }
-            }
-        }
+        keep(categorySync.listen())
     }
 
-    // ── Initial upload ──────────────────────────────────────────────
+    // ── Full upload ─────────────────────────────────────────────────
 
+    /**
+     * Queues every local row for upload. Not run at startup: normal edits go through the
+     * outbox, so this is only needed to repopulate a remote that has lost its data.
+     */
     fun pushAllLocalData() {
         scope.launch {
-            val entries = entryDao.getAllEntriesSync()
-            for (e in entries) {
-                pushEntry(e)
-            }
-
-            val categories = categoryDao.getAllCategoriesSync()
-            for (c in categories) {
-                pushCategory(c)
-            }
+            entrySync.pushAll(entryDao.getAllEntriesSync())
+            categorySync.pushAll(categoryDao.getAllCategoriesSync())
         }
     }
 
-    // ── Start all listeners ─────────────────────────────────────────
+    // ── Start / stop listeners ──────────────────────────────────────
 
+    /**
+     * Attaches the live listeners. Called while the split screen is in the foreground;
+     * the rest of the time [SyncWorker] runs [syncOnce] on a schedule instead.
+     */
     fun startListening() {
-        if (isListening) {
-            Log.d(TAG, "startListening() skipped — already listening")
-            return
+        synchronized(listenerHandles) {
+            if (isListening) {
+                Log.d(TAG, "startListening() skipped — already listening")
+                return
+            }
+            isListening = true
         }
-        isListening = true
         Log.d(TAG, "startListening() called — root: weekly_totals/split/")
-        pushAllLocalData()
+        // Send anything left over from a previous session (e.g. edits made offline)
+        outbox.flush()
         startEntryListener()
         startCategoryListener()
+        scope.launch { entrySync.compactTombstones() }
     }
 
-    // ── Utility ─────────────────────────────────────────────────────
+    /** Detaches everything [startListening] attached, letting the connection go idle. */
+    fun stopListening() {
+        val handles = synchronized(listenerHandles) {
+            isListening = false
+            listenerHandles.toList().also { listenerHandles.clear() }
+        }
+        handles.forEach { it.remove() }
+        // The app may be killed any time after this, so don't leave traffic buffered
+        (backend as? MeteredSyncBackend)?.let { scope.launch { it.flushNow() } }
+    }
 
-    private fun toDouble(value: Any): Double {
-        return when (value) {
-            is Double -> value
-            is Long -> value.toDouble()
-            is Float -> value.toDouble()
-            is Int -> value.toDouble()
-            is String -> value.toDoubleOrNull() ?: 0.0
-            else -> 0.0
+    private fun keep(handle: ListenerHandle) {
+        val attached = synchronized(listenerHandles) {
+            if (isListening) listenerHandles.add(handle)
+            isListening
         }
+        if (!attached) handle.remove()
+    }
+
+    /**
+     * One batched sync without listeners: uploads the outbox, then pulls entries and
+     * categories. Returns false if anything could not be sent or read.
+     */
+    suspend fun syncOnce(): Boolean {
+        var ok = outbox.flushAndWait()
+        ok = (withTimeoutOrNull(FETCH_TIMEOUT_MS) { entrySync.pull() } ?: false) && ok
+        ok = (withTimeoutOrNull(FETCH_TIMEOUT_MS) { categorySync.pull() } ?: false) && ok
+        entrySync.compactTombstones()
+        (backend as? MeteredSyncBackend)?.flushNow()
+        return ok
     }
 }
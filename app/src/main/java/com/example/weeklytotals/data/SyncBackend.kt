@@ -0,0 +1,73 @@
+package com.example.weeklytotals.data
+
+/**
+ * A node read from the sync backend: its key and its plain value (nested
+ * `Map<String, Any?>`, `String`, `Long`, `Double`, `Boolean`, or null if absent).
+ */
+class RemoteSnapshot(val key: String?, val value: Any?) {
+
+    val childrenCount: Int
+        get() = (value as? Map<*, *>)?.size ?: 0
+
+    val children: List<RemoteSnapshot>
+        get() {
+            val map = value as? Map<*, *> ?: return emptyList()
+            return map.map { (k, v) -> RemoteSnapshot(k as String, v) }
+        }
+
+    fun exists(): Boolean = value != null
+}
+
+/** Detaches a listener registered with a [SyncBackend]. */
+fun interface ListenerHandle {
+    fun remove()
+}
+
+/**
+ * Remote store the sync managers talk to. Paths are relative to the `weekly_totals` root
+ * and use "/" separators. Listener callbacks may arrive on any thread but never
+ * concurrently for the same listener.
+ */
+interface SyncBackend {
+
+    interface ValueListener {
+        /** Called with the current value once attached, then after every change. */
+        fun onValue(snapshot: RemoteSnapshot)
+        fun onCancelled(error: Exception)
+    }
+
+    interface ChildListener {
+        fun onChildAdded(snapshot: RemoteSnapshot)
+        fun onChildChanged(snapshot: RemoteSnapshot)
+        fun onChildRemoved(snapshot: RemoteSnapshot)
+        fun onCancelled(error: Exception)
+    }
+
+    fun listen(path: String, listener: ValueListener): ListenerHandle
+
+    /** Like [listen], but only for the current value. */
+    fun listenOnce(path: String, listener: ValueListener)
+
+    fun listenChildren(path: String, listener: ChildListener): ListenerHandle
+
+    /** Called with the current connection state once attached, then on every change. */
+    fun listenConnected(listener: (Boolean) -> Unit): ListenerHandle
+
+    suspend fun get(path: String): RemoteSnapshot
+
+    /** Children of [path] whose keys fall in [startKey]..[endKey] (inclusive). */
+    suspend fun getKeyRange(path: String, startKey: String, endKey: String): RemoteSnapshot
+
+    /**
+     * Children of [path] whose numeric [child] field is at least [start]. Children without
+     * the field are left out. Needs an `.indexOn` rule for [child] to run on the server.
+     */
+    suspend fun getChildrenFrom(path: String, child: String, start: Long): RemoteSnapshot
+
+    suspend fun put(path: String, value: Any?)
+
+    suspend fun delete(path: String)
+
+    /** Writes several paths atomically; a null value deletes that path. */
+    suspend fun update(updates: Map<String, Any?>)
+}
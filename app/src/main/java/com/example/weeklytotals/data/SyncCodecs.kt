@@ -0,0 +1,147 @@
+package com.example.weeklytotals.data
+
+// ── Weekly totals ───────────────────────────────────────────────────
+
+/** Transactions live under transactions_by_week/{weekStartDate}/{syncId}. */
+object TransactionCodec : SyncCodec<Transaction> {
+    const val NODE = "transactions_by_week"
+
+    override val collection = OutboxEntry.COLLECTION_TRANSACTIONS
+
+    override fun key(entity: Transaction) = entity.syncId
+
+    override fun path(entity: Transaction) = "$NODE/${entity.weekStartDate}/${entity.syncId}"
+
+    /** The week a transaction path belongs to, or null for any other path. */
+    fun weekOfPath(path: String): String? {
+        val parts = path.split('/')
+        return if (parts.size == 3 && parts[0] == NODE) parts[1] else null
+    }
+
+    override fun encode(entity: Transaction): Map<String, Any?> {
+        val data = mutableMapOf<String, Any?>(
+            "weekStartDate" to entity.weekStartDate,
+            "category" to entity.category,
+            "amountCents" to entity.amountCents,
+            // Still written for app versions that predate amountCents
+            "amount" to entity.amount,
+            "isAdjustment" to entity.isAdjustment,
+            "createdAt" to entity.createdAt,
+            "updatedAt" to entity.updatedAt
+        )
+        if (entity.details != null) {
+            data["details"] = entity.details
+        }
+        if (entity.isDeleted) {
+            data["isDeleted"] = true
+        }
+        return data
+    }
+
+    override val hasTombstones = true
+
+    override fun decode(key: String, raw: Any?) = SnapshotDecoder.decodeTransaction(key, raw)
+}
+
+object CategoryCodec : SyncCodec<CategoryEntity> {
+    override val collection = OutboxEntry.COLLECTION_CATEGORIES
+
+    override fun key(entity: CategoryEntity) = entity.name
+
+    override fun encode(entity: CategoryEntity): Map<String, Any?> {
+        return mapOf(
+            "name" to entity.name,
+            "displayName" to entity.displayName,
+            "color" to entity.color,
+            "isSystem" to entity.isSystem
+        )
+    }
+
+    override fun decode(key: String, raw: Any?): CategoryEntity? {
+        val fields = raw as? Map<*, *> ?: return null
+        val name = fields["name"] as? String ?: return null
+        return CategoryEntity(
+            name = name,
+            displayName = fields["displayName"] as? String ?: name,
+            color = fields["color"] as? String ?: DEFAULT_COLOR,
+            isSystem = fields["isSystem"] as? Boolean ?: false
+        )
+    }
+}
+
+/**
+ * Savings are stored as savings/{weekStartDate} = amount in dollars: a bare number leaves
+ * no room for a cents field next to it, and older app versions read it as dollars.
+ */
+object SavingsCodec : SyncCodec<WeeklySavings> {
+    override val collection = OutboxEntry.COLLECTION_SAVINGS
+
+    override fun key(entity: WeeklySavings) = entity.weekStartDate
+
+    override fun encode(entity: WeeklySavings) = entity.amount
+
+    override fun decode(key: String, raw: Any?): WeeklySavings? {
+        val amount = SnapshotDecoder.readDouble(raw)
+        if (amount.isNaN()) return null
+        return WeeklySavings(weekStartDate = key, amountCents = Money.toCents(amount))
+    }
+}
+
+// ── Split ───────────────────────────────────────────────────────────
+
+object SplitEntryCodec : SyncCodec<SplitEntry> {
+    override val collection = OutboxEntry.COLLECTION_SPLIT_ENTRIES
+
+    override fun key(entity: SplitEntry) = entity.syncId
+
+    override fun encode(entity: SplitEntry): Map<String, Any?> {
+        val data = mutableMapOf<String, Any?>(
+            "category" to entity.category,
+            "amountCents" to entity.amountCents,
+            // Still written for app versions that predate amountCents
+            "amount" to entity.amount,
+            "comment" to entity.comment,
+            "splitType" to entity.splitType,
+            "createdByEmail" to entity.createdByEmail,
+            "createdAt" to entity.createdAt,
+            "updatedAt" to entity.updatedAt
+        )
+        if (entity.isDeleted) {
+            data["isDeleted"] = true
+        }
+        return data
+    }
+
+    override val hasTombstones = true
+
+    override fun decode(key: String, raw: Any?) = SnapshotDecoder.decodeSplitEntry(key, raw)
+}
+
+object SplitCategoryCodec : SyncCodec<SplitCategory> {
+    override val collection = OutboxEntry.COLLECTION_SPLIT_CATEGORIES
+
+    override fun key(entity: SplitCategory) = entity.name
+
+    override fun encode(entity: SplitCategory): Map<String, Any?> {
+        return mapOf(
+            "name" to entity.name,
+            "displayName" to entity.displayName,
+            "color" to entity.color,
+            "isSystem" to entity.isSystem
+        )
+    }
+
+    override fun decode(key: String, raw: Any?): SplitCategory? {
+        val fields = raw as? Map<*, *> ?: return null
+        val name = fields["name"] as? String ?: return null
+        return SplitCategory(
+            name = name,
+            displayName = fields["displayName"] as? String ?: name,
+            color = fields["color"] as? String ?: DEFAULT_COLOR,
+            isSystem = fields["isSystem"] as? Boolean ?: false
+        )
+    }
+}
+
+// Used for remote categories that predate the color field
+private const val DEFAULT_COLOR = "#607D8B"
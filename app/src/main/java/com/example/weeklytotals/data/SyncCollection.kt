@@ -0,0 +1,58 @@
+package com.example.weeklytotals.data
+
+/**
+ * How one entity type is stored remotely: its key, where it lives under weekly_totals/,
+ * and how it is encoded and decoded. Keys are strings because that is what remote paths
+ * and the outbox use.
+ */
+interface SyncCodec<T> {
+    /** Outbox collection name; also the remote node the entities live under by default. */
+    val collection: String
+
+    fun key(entity: T): String
+
+    /** Remote path of [entity], relative to weekly_totals/. */
+    fun path(entity: T): String = "$collection/${key(entity)}"
+
+    fun encode(entity: T): Any?
+
+    /**
+     * True if deletes are synced as tombstone rows rather than by removing the remote
+     * child. A reconcile then never infers a delete from a key missing remotely.
+     */
+    val hasTombstones: Boolean get() = false
+
+    /** Decodes one remote child, or returns null if it is malformed. */
+    fun decode(key: String, raw: Any?): T?
+}
+
+/** Room side of a synced entity type, addressed by the codec's key. */
+interface SyncStore<T> {
+    suspend fun get(key: String): T?
+
+    /** SQL selecting every local key in ascending order, for the reconcile's merge join. */
+    val sortedKeysSql: String
+
+    /** Inserts or updates [entity] by key, writing nothing if it is unchanged. */
+    suspend fun upsert(entity: T): UpsertResult
+
+    suspend fun deleteAll(keys: List<String>): Int
+
+    /** Local keys that must survive a reconcile even if they are missing remotely. */
+    suspend fun keptKeys(): Collection<String> = emptyList()
+
+    /** Hard-deletes tombstones last changed before [before] and returns them. */
+    suspend fun removeTombstones(before: Long): List<T> = emptyList()
+}
+
+/** A codec and the store it reads from and writes to. */
+class SyncCollection<T>(val codec: SyncCodec<T>, val store: SyncStore<T>) {
+
+    /** Current remote value for a queued record, or null if it no longer belongs at [path]. */
+    suspend fun resolve(key: String, path: String): Any? {
+        val entity = store.get(key) ?: return null
+        // A row that has since moved (e.g. to another week) no longer belongs at this path
+        if (codec.path(entity) != path) return null
+        return codec.encode(entity)
+    }
+}
@@ -0,0 +1,401 @@
+package com.example.weeklytotals.data
+
+import android.util.Log
+import androidx.room.withTransaction
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.util.Arrays
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Two-way sync of one entity type between Room and the [SyncBackend], driven by a
+ * [SyncCollection]. Local edits go out through the outbox; remote changes come in either as
+ * whole-node reconciles ([listen]) or as single-child applies ([listenChildren]).
+ *
+ * Remote changes for the collection are handled one at a time, in the order they were
+ * delivered, so a change can never be overtaken by an older one. Each goes through a
+ * pipeline: the snapshot's keys are sorted, children are decoded a window at a time (large
+ * windows in parallel chunks on [Dispatchers.Default]), and each window is written to Room
+ * on a single writer dispatcher shared by every engine.
+ */
+class SyncEngine<T>(
+    collection: SyncCollection<T>,
+    private val backend: SyncBackend,
+    private val appDb: AppDatabase,
+    private val outbox: SyncOutbox,
+    private val scope: CoroutineScope
+) {
+    private val codec = collection.codec
+    private val store = collection.store
+    private val outboxDao = appDb.outboxDao()
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val dispatcher = Dispatchers.IO.limitedParallelism(1)
+
+    // Held for the whole of each remote change. The dispatcher alone does not keep them in
+    // order once one suspends for a parallel decode or a write.
+    private val order = Mutex()
+
+    companion object {
+        private const val TAG = "SyncEngine"
+
+        // Keeps IN (...) lists well under SQLite's bind-argument limit
+        private const val MAX_BIND_ARGS = 500
+
+        // How long a deleted row is kept as a tombstone before it is dropped for good
+        const val TOMBSTONE_RETENTION_MS = 90L * 24 * 60 * 60 * 1000
+
+        // Below this a snapshot decodes faster on one thread than it can be split up
+        private const val PARALLEL_DECODE_MIN_CHILDREN = 2_000
+
+        // Children decoded and held at once during a reconcile
+        private const val DECODE_WINDOW = 8_192
+
+        // SQLite takes one writer at a time anyway; queueing writes here instead of on the
+        // database lock keeps IO threads free while a large apply runs
+        @OptIn(ExperimentalCoroutinesApi::class)
+        private val writer = Dispatchers.IO.limitedParallelism(1)
+
+        // Code point order, which is how SQLite's default BINARY collation orders UTF-8
+        // text, so the sorted remote keys and a local ORDER BY agree
+        private fun compareKeys(a: String, b: String): Int {
+            var i = 0
+            var j = 0
+            while (i < a.length && j < b.length) {
+                val ca = a.codePointAt(i)
+                val cb = b.codePointAt(j)
+                if (ca != cb) return ca.compareTo(cb)
+                i += Character.charCount(ca)
+                j += Character.charCount(cb)
+            }
+            return when {
+                i < a.length -> 1
+                j < b.length -> -1
+                else -> 0
+            }
+        }
+    }
+
+    // ── Local → remote ──────────────────────────────────────────────
+
+    /** Queues [entity] for upload. Call after deletes too; the outbox uploads a null. */
+    fun push(entity: T) {
+        outbox.enqueue(codec.collection, codec.key(entity), codec.path(entity))
+    }
+
+    fun pushAll(entities: List<T>) {
+        outbox.enqueueAllAt(codec.collection, entities.map { codec.key(it) to codec.path(it) })
+    }
+
+    /**
+     * Drops tombstones older than [retentionMs] from Room and removes them remotely too.
+     * A device offline for longer than the retention window may miss those deletes.
+     */
+    suspend fun compactTombstones(retentionMs: Long = TOMBSTONE_RETENTION_MS) {
+        if (!codec.hasTombstones) return
+        val removed = order.withLock {
+            withContext(writer) {
+                appDb.withTransaction { store.removeTombstones(System.currentTimeMillis() - retentionMs) }
+            }
+        }
+        // The rows are gone locally, so the outbox resolves each one to a remote delete
+        if (removed.isNotEmpty()) pushAll(removed)
+    }
+
+    // ── Remote → local ──────────────────────────────────────────────
+
+    /**
+     * Reconciles [path] with Room on every change. [onReconciled] runs after each
+     * reconcile, or on cancellation.
+     */
+    fun listen(
+        path: String = codec.collection,
+        onReconciled: () -> Unit = {}
+    ): ListenerHandle {
+        // Snapshots arriving while a reconcile runs are conflated
+        val processor = LatestSnapshotProcessor<RemoteSnapshot>(scope, dispatcher) { snapshot ->
+            try {
+                reconcileNow(snapshot)
+            } finally {
+                onReconciled()
+            }
+        }
+        val handle = backend.listen(path, object : SyncBackend.ValueListener {
+            override fun onValue(snapshot: RemoteSnapshot) {
+                processor.submit(snapshot)
+            }
+
+            override fun onCancelled(error: Exception) {
+                Log.e(TAG, "Listener on $path cancelled", error)
+                onReconciled()
+            }
+        })
+        // Listeners come and go with the screens, so the consumer must go with them
+        return ListenerHandle {
+            handle.remove()
+            processor.close()
+        }
+    }
+
+    /**
+     * Reconciles [path] once when attached, then applies each added, changed or removed
+     * child on its own, so an edit costs the same no matter how large the node is.
+     * [onReconciled] runs after the first reconcile, or on cancellation.
+     */
+    fun listenChildren(
+        path: String = codec.collection,
+        onReconciled: () -> Unit = {}
+    ): ListenerHandle {
+        // Child events delivered before the initial value event are covered by the full
+        // reconcile below and are skipped.
+        val initialLoadDone = AtomicBoolean(false)
+
+        val handle = backend.listenChildren(path, object : SyncBackend.ChildListener {
+            override fun onChildAdded(snapshot: RemoteSnapshot) {
+                if (initialLoadDone.get()) applyChild(snapshot)
+            }
+
+            override fun onChildChanged(snapshot: RemoteSnapshot) {
+                if (initialLoadDone.get()) applyChild(snapshot)
+            }
+
+            override fun onChildRemoved(snapshot: RemoteSnapshot) {
+                if (initialLoadDone.get()) removeChild(path, snapshot)
+            }
+
+            override fun onCancelled(error: Exception) {
+                Log.e(TAG, "Child listener on $path cancelled", error)
+                onReconciled()
+            }
+        })
+
+        // Value events fire after the child events for the same data, so this sees the
+        // whole node once and reconciles anything that changed while we were offline
+        // (including deletes). Everything after it arrives as a single child event.
+        backend.listenOnce(path, object : SyncBackend.ValueListener {
+            override fun onValue(snapshot: RemoteSnapshot) {
+                initialLoadDone.set(true)
+                scope.launch(dispatcher) {
+                    try {
+                        reconcileNow(snapshot)
+                    } finally {
+                        onReconciled()
+                    }
+                }
+            }
+
+            override fun onCancelled(error: Exception) {
+                Log.e(TAG, "Initial load of $path cancelled", error)
+                initialLoadDone.set(true)
+                onReconciled()
+            }
+        })
+        return handle
+    }
+
+    /**
+     * Reads [path] once and reconciles it, for syncing without a listener attached.
+     * Returns false if the read failed.
+     */
+    suspend fun pull(path: String = codec.collection): Boolean {
+        val snapshot = try {
+            backend.get(path)
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to read $path", e)
+            return false
+        }
+        reconcile(snapshot)
+        return true
+    }
+
+    /** Reconciles a node read outside the listeners (e.g. a one-off history fetch). */
+    suspend fun reconcile(snapshot: RemoteSnapshot) {
+        withContext(dispatcher) { reconcileNow(snapshot) }
+    }
+
+    private fun applyChild(child: RemoteSnapshot) {
+        scope.launch(dispatcher) {
+            order.withLock {
+                val entity = child.key?.let { codec.decode(it, child.value) } ?: return@withLock
+                val result = applyRemote { store.upsert(entity) }
+                SyncMetrics.recordChildEvent(
+                    codec.collection,
+                    inserted = if (result == UpsertResult.INSERTED) 1 else 0,
+                    updated = if (result == UpsertResult.UPDATED) 1 else 0,
+                    deleted = 0
+                )
+            }
+        }
+    }
+
+    // Children of tombstoned collections are only removed by compaction or by moving to
+    // another path, so the local row is deleted only if it still lives at this one
+    private fun removeChild(parent: String, child: RemoteSnapshot) {
+        scope.launch(dispatcher) {
+            order.withLock {
+                val key = child.key ?: return@withLock
+                val local = store.get(key)
+                val deleted = if (local != null && codec.path(local) == "$parent/$key") {
+                    applyRemote { store.deleteAll(listOf(key)) }
+                } else {
+                    0
+                }
+                SyncMetrics.recordChildEvent(codec.collection, inserted = 0, updated = 0, deleted = deleted)
+            }
+        }
+    }
+
+    // Writes one remote change in a single Room transaction on the shared writer. Nothing
+    // in here pushes: only user edits reach the outbox, so none has to be suppressed.
+    private suspend fun <R> applyRemote(block: suspend () -> R): R {
+        return withContext(writer) {
+            appDb.withTransaction { block() }
+        }
+    }
+
+    /**
+     * Makes Room match [snapshot]: every remote child is upserted by key and, unless the
+     * collection syncs deletes as tombstones, local rows missing remotely are deleted, all
+     * in one Room transaction.
+     *
+     * With tombstones a delete arrives as an ordinary changed row, so the snapshot may be
+     * any subset of the node (e.g. one week, or only rows changed since a watermark) and
+     * the local table is not walked at all.
+     *
+     * Apart from the snapshot itself, which the backend hands over whole, memory stays flat:
+     * only the child keys are copied and sorted, and children are decoded and written one
+     * window of [DECODE_WINDOW] at a time, in key order, for every collection.
+     */
+    private suspend fun reconcileNow(snapshot: RemoteSnapshot) = order.withLock {
+        val trace = ReconcileTrace(codec.collection)
+        val children = sortedChildren(snapshot.value)
+        trace.decoded(children.size)
+
+        // Delete local rows that are not in the snapshot
+        // Skip if the snapshot is empty — avoids race condition on first sync / fresh DB
+        // Skip rows still waiting in the outbox — they are missing remotely because
+        // they have not been uploaded yet, not because another device deleted them
+        val findDeletes = !codec.hasTombstones && children.size > 0
+        val kept = if (findDeletes) store.keptKeys() else emptyList()
+        val pendingKeys = if (findDeletes) outboxDao.getPendingKeys(codec.collection).toHashSet() else emptySet()
+
+        // One commit for the whole node. Rows that did not change are not written and so
+        // don't invalidate observers.
+        var inserted = 0
+        var updated = 0
+        var deleted = 0
+        applyRemote {
+            // Worked out before anything is written: a cursor over a table that changes
+            // underneath it can skip or repeat rows
+            val deletes = if (findDeletes) keysMissingRemotely(children.keys, kept, pendingKeys) else emptyList()
+            trace.diffed()
+            for (chunk in deletes.chunked(MAX_BIND_ARGS)) {
+                store.deleteAll(chunk)
+            }
+            deleted = deletes.size
+            var from = 0
+            while (from < children.size) {
+                val to = minOf(from + DECODE_WINDOW, children.size)
+                val decodeStart = System.nanoTime()
+                val window = decodeRange(children, from, to)
+                trace.decodedWindow(System.nanoTime() - decodeStart)
+                for (entity in window) {
+                    when (store.upsert(entity)) {
+                        UpsertResult.INSERTED -> inserted++
+                        UpsertResult.UPDATED -> updated++
+                        UpsertResult.UNCHANGED -> {}
+                    }
+                }
+                from = to
+            }
+        }
+        trace.finish(inserted, updated, deleted)
+    }
+
+    /**
+     * Merge join of the [remote] keys, sorted, with the local keys read in the same order
+     * from an index scan: every local key with no remote match, other than [kept] and
+     * [pending], is a delete. A remote child that fails to decode still counts as present.
+     */
+    private fun keysMissingRemotely(remote: Array<String>, kept: Collection<String>, pending: Set<String>): List<String> {
+        val deletes = ArrayList<String>()
+        appDb.query(store.sortedKeysSql, null).use { cursor ->
+            var r = 0
+            var previous: String? = null
+            while (cursor.moveToNext()) {
+                val local = cursor.getString(0)
+                if (local == previous) continue
+                previous = local
+                // Remote keys sorting before this one have no local row; upserting inserts them
+                while (r < remote.size && compareKeys(remote[r], local) < 0) r++
+                if (r < remote.size && remote[r] == local) {
+                    r++
+                } else if (local !in kept && local !in pending) {
+                    deletes.add(local)
+                }
+            }
+        }
+        return deletes
+    }
+
+    // A snapshot's child keys in key order. Only the keys are copied; each raw child stays
+    // in the snapshot until its window is decoded.
+    private class Children(val keys: Array<String>, private val map: Map<String, Any?>?, private val list: List<*>?) {
+        val size get() = keys.size
+
+        fun raw(i: Int): Any? = if (map != null) map[keys[i]] else list?.get(keys[i].toInt())
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun sortedChildren(node: Any?): Children {
+        val children = when (node) {
+            is Map<*, *> -> {
+                val keys = arrayOfNulls<String>(node.size)
+                var i = 0
+                for (key in node.keys) keys[i++] = key.toString()
+                Children(keys.requireNoNulls(), node as Map<String, Any?>, null)
+            }
+            // Firebase turns a node whose keys look like array indices into a List
+            is List<*> -> Children(Array(node.size) { it.toString() }, null, node)
+            else -> return Children(emptyArray(), null, null)
+        }
+        Arrays.parallelSort(children.keys) { a, b -> compareKeys(a, b) }
+        return children
+    }
+
+    /**
+     * Decodes children [from] until [to], in key order. Large windows (e.g. the first sync
+     * of a new phone) are split into one contiguous chunk per core, decoded in parallel on
+     * [Dispatchers.Default]; the keys are already sorted, so the chunks are joined as is.
+     */
+    private suspend fun decodeRange(children: Children, from: Int, to: Int): List<T> {
+        val size = to - from
+        if (size < PARALLEL_DECODE_MIN_CHILDREN) return decodeChunk(children, from, to)
+        val parallelism = Runtime.getRuntime().availableProcessors().coerceAtLeast(2)
+        val chunkSize = (size + parallelism - 1) / parallelism
+        val chunks = coroutineScope {
+            (from until to step chunkSize).map { start ->
+                async(Dispatchers.Default) { decodeChunk(children, start, minOf(start + chunkSize, to)) }
+            }.awaitAll()
+        }
+        val result = ArrayList<T>(size)
+        for (chunk in chunks) result.addAll(chunk)
+        return result
+    }
+
+    private fun decodeChunk(children: Children, from: Int, to: Int): List<T> {
+        val result = ArrayList<T>(to - from)
+        for (i in from until to) {
+            codec.decode(children.keys[i], children.raw(i))?.let { result.add(it) }
+        }
+        return result
+    }
+}
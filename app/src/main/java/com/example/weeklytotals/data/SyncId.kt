@@ -0,0 +1,60 @@
+package com.example.weeklytotals.data
+
+import android.content.Context
+import java.security.SecureRandom
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Sync keys for transactions and split entries: 26-character ULIDs (Crockford base32)
+ * whose 80 random bits are replaced by a 40-bit device id and a 40-bit per-device
+ * sequence. Two devices can never produce the same id, and ids sort by creation time.
+ *
+ * Rows created before these ids existed keep their createdAt millis as key (e.g.
+ * `1700000000000`); both forms are plain strings and live side by side.
+ */
+object SyncId {
+
+    private const val ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ"
+    private const val PREFS = "sync_prefs"
+    private const val KEY_DEVICE_ID = "device_id"
+    private const val MASK_40 = (1L shl 40) - 1
+
+    private val random = SecureRandom()
+
+    // Replaced by the persisted id in init(); the fallback keeps tests and early callers
+    // unique for the life of the process
+    @Volatile
+    private var deviceId = random.nextLong() and MASK_40
+
+    // Starts at a random point so ids made in the same millisecond by a restarted
+    // process don't repeat earlier ones
+    private val sequence = AtomicLong(random.nextLong() and MASK_40)
+
+    /** Loads this install's device id, creating it on first run. Call from Application.onCreate. */
+    fun init(context: Context) {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        var id = prefs.getLong(KEY_DEVICE_ID, -1L)
+        if (id < 0) {
+            id = random.nextLong() and MASK_40
+            prefs.edit().putLong(KEY_DEVICE_ID, id).apply()
+        }
+        deviceId = id
+    }
+
+    fun next(timeMillis: Long = System.currentTimeMillis()): String {
+        val chars = CharArray(26)
+        encode(timeMillis, chars, 0, 10)
+        encode(deviceId, chars, 10, 8)
+        encode(sequence.getAndIncrement() and MASK_40, chars, 18, 8)
+        return String(chars)
+    }
+
+    // Writes the low 5 * length bits of value as base32, most significant first
+    private fun encode(value: Long, into: CharArray, offset: Int, length: Int) {
+        var v = value
+        for (i in offset + length - 1 downTo offset) {
+            into[i] = ALPHABET[(v and 31).toInt()]
+            v = v ushr 5
+        }
+    }
+}
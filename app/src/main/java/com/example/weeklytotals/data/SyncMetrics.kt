@@ -0,0 +1,121 @@
+package com.example.weeklytotals.data
+
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+
+/**
+ * Figures for one synced collection: the most recent full reconcile, and running totals
+ * of the single-child events applied since. A child event never replaces the reconcile
+ * figures. Before the first full reconcile, [syncCount] and [lastSuccessAt] are 0.
+ */
+data class SyncStats(
+    val collection: String,
+    val snapshotChildren: Int = 0,
+    val decodeMs: Double = 0.0,
+    val diffMs: Double = 0.0,
+    val applyMs: Double = 0.0,
+    val inserted: Int = 0,
+    val updated: Int = 0,
+    val deleted: Int = 0,
+    val syncCount: Int = 0,
+    val lastSuccessAt: Long = 0L,       // wall clock, for "time since last sync"
+    val childEvents: Int = 0,
+    val childInserted: Int = 0,
+    val childUpdated: Int = 0,
+    val childDeleted: Int = 0,
+    val lastChildEventAt: Long = 0L     // wall clock
+)
+
+/**
+ * In-memory sync metrics, keyed by collection (the [OutboxEntry] collection names).
+ * Only the latest full reconcile per collection is kept, next to counters for the child
+ * events; nothing is persisted.
+ */
+object SyncMetrics {
+
+    private val _stats = MutableStateFlow<Map<String, SyncStats>>(emptyMap())
+    val stats: StateFlow<Map<String, SyncStats>> = _stats.asStateFlow()
+
+    fun record(
+        collection: String,
+        snapshotChildren: Int,
+        decodeNanos: Long,
+        diffNanos: Long,
+        applyNanos: Long,
+        inserted: Int,
+        updated: Int,
+        deleted: Int
+    ) {
+        _stats.update { current ->
+            val previous = current[collection] ?: SyncStats(collection)
+            current + (collection to previous.copy(
+                snapshotChildren = snapshotChildren,
+                decodeMs = decodeNanos / 1_000_000.0,
+                diffMs = diffNanos / 1_000_000.0,
+                applyMs = applyNanos / 1_000_000.0,
+                inserted = inserted,
+                updated = updated,
+                deleted = deleted,
+                syncCount = previous.syncCount + 1,
+                lastSuccessAt = System.currentTimeMillis()
+            ))
+        }
+    }
+
+    /** Counts one child added, changed or removed by a listener, outside a full reconcile. */
+    fun recordChildEvent(collection: String, inserted: Int, updated: Int, deleted: Int) {
+        _stats.update { current ->
+            val previous = current[collection] ?: SyncStats(collection)
+            current + (collection to previous.copy(
+                childEvents = previous.childEvents + 1,
+                childInserted = previous.childInserted + inserted,
+                childUpdated = previous.childUpdated + updated,
+                childDeleted = previous.childDeleted + deleted,
+                lastChildEventAt = System.currentTimeMillis()
+            ))
+        }
+    }
+}
+
+/**
+ * Stopwatch for one full reconcile. Call [decoded] and [diffed] as each phase ends, then
+ * [finish] once Room has been written (or straight away if there was nothing to write).
+ * Children decoded while the apply runs are reported with [decodedWindow], and count as
+ * decode time rather than apply time.
+ */
+class ReconcileTrace(private val collection: String) {
+    private val startedAt = System.nanoTime()
+    private var decodedAt = startedAt
+    private var diffedAt = startedAt
+    private var children = 0
+    private var windowDecodeNanos = 0L
+
+    fun decoded(snapshotChildren: Int) {
+        children = snapshotChildren
+        decodedAt = System.nanoTime()
+    }
+
+    fun decodedWindow(nanos: Long) {
+        windowDecodeNanos += nanos
+    }
+
+    fun diffed() {
+        diffedAt = System.nanoTime()
+    }
+
+    fun finish(inserted: Int, updated: Int, deleted: Int) {
+        val now = System.nanoTime()
+        SyncMetrics.record(
+            collection = collection,
+            snapshotChildren = children,
+            decodeNanos = decodedAt - startedAt + windowDecodeNanos,
+            diffNanos = diffedAt - decodedAt,
+            applyNanos = now - diffedAt - windowDecodeNanos,
+            inserted = inserted,
+            updated = updated,
+            deleted = deleted
+        )
+    }
+}
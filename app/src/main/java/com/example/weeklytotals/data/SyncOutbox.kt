@@ -0,0 +1,182 @@
+package com.example.weeklytotals.data
+
+import android.content.Context
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * Persistent queue of local changes waiting to be uploaded.
+ *
+ * Sync managers enqueue the remote path of every record they change; [flush] then reads
+ * the current state of each queued record from Room and sends all of them in one
+ * multi-path `updateChildren` write. A record that no longer exists locally is written as
+ * null, which deletes it remotely. The same write refreshes the [WeekDigest] of every week
+ * whose transactions it touches. Failed flushes are retried with exponential backoff.
+ *
+ * Enqueued changes are not sent at once: the first one opens a short coalescing window,
+ * and everything queued until it closes goes out in one write. The queue holds one row
+ * per path, so a record edited several times in the window is sent once, in its final
+ * state.
+ */
+class SyncOutbox(
+    context: Context,
+    private val backend: SyncBackend = MeteredSyncBackend.getInstance(context),
+    appDb: AppDatabase = AppDatabase.getInstance(context)
+) {
+
+    private val outboxDao = appDb.outboxDao()
+    private val collections = syncCollections(appDb)
+    private val transactionStore = TransactionStore(appDb)
+
+    private val scope = CoroutineScope(Dispatchers.IO)
+    private val flushMutex = Mutex()
+
+    @Volatile
+    private var lastStamp = 0L
+    @Volatile
+    private var failedAttempts = 0
+    @Volatile
+    private var retryJob: Job? = null
+    private var windowJob: Job? = null
+
+    companion object {
+        private const val TAG = "SyncOutbox"
+
+        // Keeps the first upload of a long history from turning into one huge request
+        private const val MAX_PATHS_PER_UPDATE = 500
+        private const val INITIAL_BACKOFF_MS = 2_000L
+        private const val MAX_BACKOFF_MS = 5 * 60_000L
+
+        // Long enough to catch a quick follow-up fix (amount, then category), short
+        // enough that the other device still sees the change almost at once
+        private const val COALESCE_WINDOW_MS = 1_000L
+
+        @Volatile
+        private var INSTANCE: SyncOutbox? = null
+
+        fun getInstance(context: Context): SyncOutbox {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: SyncOutbox(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+
+    fun enqueue(collection: String, entityKey: String, path: String = "$collection/$entityKey") {
+        val entry = OutboxEntry(
+            path = path,
+            collection = collection,
+            entityKey = entityKey,
+            enqueuedAt = nextStamp()
+        )
+        scope.launch {
+            outboxDao.upsert(entry)
+            scheduleFlush()
+        }
+    }
+
+    /** Queues several records of [collection] at once, each with its key and remote path. */
+    fun enqueueAllAt(collection: String, keysAndPaths: List<Pair<String, String>>) {
+        if (keysAndPaths.isEmpty()) return
+        val entries = keysAndPaths.map { (key, path) ->
+            OutboxEntry(
+                path = path,
+                collection = collection,
+                entityKey = key,
+                enqueuedAt = nextStamp()
+            )
+        }
+        scope.launch {
+            outboxDao.upsertAll(entries)
+            scheduleFlush()
+        }
+    }
+
+    /** Uploads everything pending. Safe to call at any time; concurrent calls queue up. */
+    fun flush() {
+        scope.launch { flushNow() }
+    }
+
+    /**
+     * Uploads everything pending and returns once done, bypassing the coalescing window.
+     * Returns false if a write failed; a retry is then scheduled as for [flush].
+     */
+    suspend fun flushAndWait(): Boolean = flushNow()
+
+    private suspend fun flushNow(): Boolean {
+        val success = flushMutex.withLock { flushPending() }
+        if (success) {
+            failedAttempts = 0
+        } else {
+            scheduleRetry()
+        }
+        return success
+    }
+
+    // Opens a coalescing window unless one is already open. The window is closed before
+    // the flush reads the queue, so a change queued after that read opens a new one.
+    private fun scheduleFlush() {
+        synchronized(this) {
+            if (windowJob != null) return
+            windowJob = scope.launch {
+                delay(COALESCE_WINDOW_MS)
+                synchronized(this@SyncOutbox) { windowJob = null }
+                flushNow()
+            }
+        }
+    }
+
+    private suspend fun flushPending(): Boolean {
+        val pending = outboxDao.getAll()
+        if (pending.isEmpty()) return true
+
+        for (batch in pending.chunked(MAX_PATHS_PER_UPDATE)) {
+            val updates = HashMap<String, Any?>(batch.size * 2)
+            val weeks = HashSet<String>()
+            for (entry in batch) {
+                updates[entry.path] = resolveValue(entry)
+                TransactionCodec.weekOfPath(entry.path)?.let { weeks.add(it) }
+            }
+            for (week in weeks) {
+                updates[WeekDigest.path(week)] = transactionStore.digestForWeek(week)?.encode()
+            }
+            try {
+                backend.update(updates)
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to flush ${batch.size} pending changes", e)
+                return false
+            }
+            outboxDao.deleteFlushed(batch)
+        }
+        Log.d(TAG, "Flushed ${pending.size} pending changes")
+        return true
+    }
+
+    /** Current remote value for a queued record, or null if it was deleted locally. */
+    private suspend fun resolveValue(entry: OutboxEntry): Any? {
+        return collections[entry.collection]?.resolve(entry.entityKey, entry.path)
+    }
+
+    private fun scheduleRetry() {
+        if (retryJob?.isActive == true) return
+        val backoff = (INITIAL_BACKOFF_MS shl failedAttempts.coerceAtMost(8)).coerceAtMost(MAX_BACKOFF_MS)
+        failedAttempts++
+        Log.d(TAG, "Retrying flush in ${backoff}ms (attempt $failedAttempts)")
+        retryJob = scope.launch {
+            delay(backoff)
+            flush()
+        }
+    }
+
+    @Synchronized
+    private fun nextStamp(): Long {
+        val now = System.currentTimeMillis()
+        lastStamp = if (now > lastStamp) now else lastStamp + 1
+        return lastStamp
+    }
+}
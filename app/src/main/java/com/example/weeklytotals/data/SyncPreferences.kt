@@ -0,0 +1,60 @@
+package com.example.weeklytotals.data
+
+import android.content.Context
+
+/** Bookkeeping for the sync layer that does not belong in Room. */
+class SyncPreferences(context: Context) {
+
+    private val prefs = context.getSharedPreferences("sync_prefs", Context.MODE_PRIVATE)
+
+    /** Closed week ranges ("from|to") already downloaded into Room for history. */
+    fun getFetchedHistoryRanges(): Set<String> {
+        return prefs.getStringSet(KEY_FETCHED_HISTORY_RANGES, emptySet()) ?: emptySet()
+    }
+
+    fun addFetchedHistoryRange(fromWeek: String, toWeek: String) {
+        val ranges = getFetchedHistoryRanges() + "$fromWeek|$toWeek"
+        prefs.edit()
+            .putStringSet(KEY_FETCHED_HISTORY_RANGES, ranges)
+            .apply()
+    }
+
+    fun isHistoryRangeFetched(fromWeek: String, toWeek: String): Boolean {
+        return getFetchedHistoryRanges().any { range ->
+            val from = range.substringBefore('|')
+            val to = range.substringAfter('|')
+            from <= fromWeek && to >= toWeek
+        }
+    }
+
+    /**
+     * Newest remote updatedAt already pulled by the transaction catch-up; 0 before the first.
+     * Kept per [WeekDigest.VERSION], so a new digest format starts with a full catch-up.
+     */
+    fun getTransactionWatermark(): Long {
+        return prefs.getLong(KEY_TRANSACTION_WATERMARK, 0L)
+    }
+
+    fun setTransactionWatermark(watermark: Long) {
+        prefs.edit()
+            .putLong(KEY_TRANSACTION_WATERMARK, watermark)
+            .apply()
+    }
+
+    /** When [SyncWorker] last finished a successful run; 0 if it never has. */
+    fun getLastBackgroundSync(): Long {
+        return prefs.getLong(KEY_LAST_BACKGROUND_SYNC, 0L)
+    }
+
+    fun setLastBackgroundSync(timeMillis: Long) {
+        prefs.edit()
+            .putLong(KEY_LAST_BACKGROUND_SYNC, timeMillis)
+            .apply()
+    }
+
+    companion object {
+        private const val KEY_FETCHED_HISTORY_RANGES = "fetched_history_ranges"
+        private const val KEY_TRANSACTION_WATERMARK = "transaction_watermark_v${WeekDigest.VERSION}"
+        private const val KEY_LAST_BACKGROUND_SYNC = "last_background_sync"
+    }
+}
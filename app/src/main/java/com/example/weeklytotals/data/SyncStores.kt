@@ -0,0 +1,164 @@
+package com.example.weeklytotals.data
+
+// ── Weekly totals ───────────────────────────────────────────────────
+
+class TransactionStore(appDb: AppDatabase) : SyncStore<Transaction> {
+    private val dao = appDb.transactionDao()
+
+    override suspend fun get(key: String) = dao.getTransactionBySyncId(key)
+
+    override val sortedKeysSql = "SELECT syncId FROM transactions ORDER BY syncId"
+
+    /** Digest of the week's local rows, or null if it has none (as if it had no digest). */
+    suspend fun digestForWeek(week: String): WeekDigest? {
+        return dao.getTransactionsForWeekSync(week).takeIf { it.isNotEmpty() }?.let { WeekDigest.of(it) }
+    }
+
+    suspend fun hasWeek(week: String) = dao.hasRowsForWeek(week)
+
+    /**
+     * Writes one remote transaction by key. A remote adjustment with no local match takes
+     * over the week's existing adjustment, re-aligning its syncId, so a week never ends
+     * up with two.
+     */
+    override suspend fun upsert(entity: Transaction): UpsertResult {
+        if (entity.isAdjustment && !entity.isDeleted) {
+            val existing = dao.getAdjustmentForWeek(entity.weekStartDate)
+            if (existing != null && existing.syncId != entity.syncId &&
+                dao.getTransactionBySyncId(entity.syncId) == null
+            ) {
+                dao.update(
+                    existing.copy(
+                        amountCents = entity.amountCents,
+                        createdAt = entity.createdAt,
+                        syncId = entity.syncId,
+                        updatedAt = entity.updatedAt,
+                        isDeleted = entity.isDeleted
+                    )
+                )
+                return UpsertResult.UPDATED
+            }
+        }
+        return dao.upsertBySyncId(entity)
+    }
+
+    override suspend fun deleteAll(keys: List<String>) = dao.deleteAllBySyncId(keys)
+
+    override suspend fun removeTombstones(before: Long): List<Transaction> {
+        val tombstones = dao.getTombstonesBefore(before)
+        for (chunk in tombstones.chunked(MAX_BIND_ARGS)) {
+            dao.deleteAllBySyncId(chunk.map { it.syncId })
+        }
+        return tombstones
+    }
+}
+
+class CategoryStore(appDb: AppDatabase) : SyncStore<CategoryEntity> {
+    private val dao = appDb.categoryDao()
+
+    override suspend fun get(key: String) = dao.getCategoryByName(key)
+
+    override val sortedKeysSql = "SELECT name FROM categories ORDER BY name"
+
+    override suspend fun upsert(entity: CategoryEntity): UpsertResult {
+        val local = dao.getCategoryByName(entity.name)
+        return when {
+            local == null -> {
+                dao.insert(entity)
+                UpsertResult.INSERTED
+            }
+            local.displayName != entity.displayName || local.color != entity.color ||
+                local.isSystem != entity.isSystem -> {
+                dao.update(entity.copy(id = local.id))
+                UpsertResult.UPDATED
+            }
+            else -> UpsertResult.UNCHANGED
+        }
+    }
+
+    override suspend fun deleteAll(keys: List<String>) = dao.deleteByNames(keys)
+
+    // Default categories may not have been pushed yet
+    override suspend fun keptKeys() = AppDatabase.DEFAULT_CATEGORY_NAMES
+}
+
+class SavingsStore(appDb: AppDatabase) : SyncStore<WeeklySavings> {
+    private val dao = appDb.weeklySavingsDao()
+
+    override suspend fun get(key: String) = dao.getSavingsForWeek(key)
+
+    override val sortedKeysSql = "SELECT weekStartDate FROM weekly_savings ORDER BY weekStartDate"
+
+    override suspend fun upsert(entity: WeeklySavings): UpsertResult {
+        val local = dao.getSavingsForWeek(entity.weekStartDate)
+        if (local?.amountCents == entity.amountCents) return UpsertResult.UNCHANGED
+        dao.upsert(entity)
+        return if (local == null) UpsertResult.INSERTED else UpsertResult.UPDATED
+    }
+
+    override suspend fun deleteAll(keys: List<String>) = dao.deleteByWeeks(keys)
+}
+
+// ── Split ───────────────────────────────────────────────────────────
+
+class SplitEntryStore(appDb: AppDatabase) : SyncStore<SplitEntry> {
+    private val dao = appDb.splitEntryDao()
+
+    override suspend fun get(key: String) = dao.getEntryBySyncId(key)
+
+    override val sortedKeysSql = "SELECT syncId FROM split_entries ORDER BY syncId"
+
+    override suspend fun upsert(entity: SplitEntry) = dao.upsertBySyncId(entity)
+
+    override suspend fun deleteAll(keys: List<String>) = dao.deleteAllBySyncId(keys)
+
+    override suspend fun removeTombstones(before: Long): List<SplitEntry> {
+        val tombstones = dao.getTombstonesBefore(before)
+        for (chunk in tombstones.chunked(MAX_BIND_ARGS)) {
+            dao.deleteAllBySyncId(chunk.map { it.syncId })
+        }
+        return tombstones
+    }
+}
+
+class SplitCategoryStore(appDb: AppDatabase) : SyncStore<SplitCategory> {
+    private val dao = appDb.splitCategoryDao()
+
+    override suspend fun get(key: String) = dao.getCategoryByName(key)
+
+    override val sortedKeysSql = "SELECT name FROM split_categories ORDER BY name"
+
+    override suspend fun upsert(entity: SplitCategory): UpsertResult {
+        val local = dao.getCategoryByName(entity.name)
+        return when {
+            local == null -> {
+                dao.insert(entity)
+                UpsertResult.INSERTED
+            }
+            local.displayName != entity.displayName || local.color != entity.color ||
+                local.isSystem != entity.isSystem -> {
+                dao.update(entity.copy(id = local.id))
+                UpsertResult.UPDATED
+            }
+            else -> UpsertResult.UNCHANGED
+        }
+    }
+
+    override suspend fun deleteAll(keys: List<String>) = dao.deleteByNames(keys)
+
+    override suspend fun keptKeys() = AppDatabase.DEFAULT_SPLIT_CATEGORY_NAMES
+}
+
+// Keeps IN (...) lists well under SQLite's bind-argument limit
+private const val MAX_BIND_ARGS = 500
+
+/** Every synced collection, keyed by outbox collection name. */
+fun syncCollections(appDb: AppDatabase): Map<String, SyncCollection<*>> {
+    return listOf(
+        SyncCollection(TransactionCodec, TransactionStore(appDb)),
+        SyncCollection(CategoryCodec, CategoryStore(appDb)),
+        SyncCollection(SavingsCodec, SavingsStore(appDb)),
+        SyncCollection(SplitEntryCodec, SplitEntryStore(appDb)),
+        SyncCollection(SplitCategoryCodec, SplitCategoryStore(appDb))
+    ).associateBy { it.codec.collection }
+}
@@ -0,0 +1,21 @@
+package com.example.weeklytotals.data
+
+import androidx.room.Entity
+
+/**
+ * Sync traffic for one collection in one direction on one day: estimated payload bytes
+ * and the number of reads, writes or listener events that carried them.
+ */
+@Entity(tableName = "sync_traffic", primaryKeys = ["day", "collection", "direction"])
+data class SyncTraffic(
+    val day: String,            // "yyyy-MM-dd", local time
+    val collection: String,     // top-level remote node, e.g. "transactions_by_week", "split/entries"
+    val direction: String,      // DIRECTION_UP or DIRECTION_DOWN
+    val bytes: Long,
+    val operations: Long
+) {
+    companion object {
+        const val DIRECTION_UP = "up"
+        const val DIRECTION_DOWN = "down"
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.weeklytotals.data
+
+import androidx.lifecycle.LiveData
+import androidx.room.Dao
+import androidx.room.Query
+
+@Dao
+interface SyncTrafficDao {
+
+    @Query("INSERT OR IGNORE INTO sync_traffic (day, collection, direction, bytes, operations) VALUES (:day, :collection, :direction, 0, 0)")
+    suspend fun ensureRow(day: String, collection: String, direction: String)
+
+    @Query("UPDATE sync_traffic SET bytes = bytes + :bytes, operations = operations + :operations WHERE day = :day AND collection = :collection AND direction = :direction")
+    suspend fun addTo(day: String, collection: String, direction: String, bytes: Long, operations: Long)
+
+    /** Adds [counts] to the stored totals, creating rows as needed. */
+    @androidx.room.Transaction
+    suspend fun addAll(counts: List<SyncTraffic>) {
+        for (c in counts) {
+            ensureRow(c.day, c.collection, c.direction)
+            addTo(c.day, c.collection, c.direction, c.bytes, c.operations)
+        }
+    }
+
+    @Query("SELECT * FROM sync_traffic WHERE day >= :fromDay ORDER BY day DESC, collection ASC")
+    fun getSince(fromDay: String): LiveData<List<SyncTraffic>>
+
+    @Query("DELETE FROM sync_traffic WHERE day < :beforeDay")
+    suspend fun deleteBefore(beforeDay: String)
+}
@@ -0,0 +1,67 @@
+package com.example.weeklytotals.data
+
+import android.content.Context
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import java.util.concurrent.TimeUnit
+
+/**
+ * Syncs in the background while no screen has live listeners attached. Each run is one
+ * batched pass: the outbox is uploaded, then weekly totals and split data are pulled
+ * once (transactions by week digest, so an idle run reads only digests).
+ *
+ * Runs on an unmetered network or while charging. WorkManager constraints can't be
+ * OR-ed, so there are two periodic requests; a run that comes soon after the other
+ * one finished is skipped.
+ */
+class SyncWorker(context: Context, params: WorkerParameters) : CoroutineWorker(context, params) {
+
+    override suspend fun doWork(): Result {
+        val syncPreferences = SyncPreferences(applicationContext)
+        val now = System.currentTimeMillis()
+        if (now - syncPreferences.getLastBackgroundSync() < MIN_RUN_SPACING_MS) return Result.success()
+
+        val totalsOk = FirebaseSyncManager.getInstance(applicationContext).syncOnce()
+        val splitOk = SplitSyncManager.getInstance(applicationContext).syncOnce()
+        if (!totalsOk || !splitOk) {
+            Log.d(TAG, "Background sync incomplete (totals=$totalsOk, split=$splitOk)")
+            return Result.retry()
+        }
+        syncPreferences.setLastBackgroundSync(System.currentTimeMillis())
+        return Result.success()
+    }
+
+    companion object {
+        private const val TAG = "SyncWorker"
+        private const val WORK_UNMETERED = "sync_unmetered"
+        private const val WORK_CHARGING = "sync_charging"
+
+        private const val INTERVAL_HOURS = 6L
+        private const val MIN_RUN_SPACING_MS = 60 * 60 * 1000L
+
+        /** Schedules the periodic runs; already scheduled work is kept. Call from Application.onCreate. */
+        fun schedule(context: Context) {
+            val workManager = WorkManager.getInstance(context)
+            val unmetered = Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .build()
+            val charging = Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .setRequiresCharging(true)
+                .build()
+
+            for ((name, constraints) in listOf(WORK_UNMETERED to unmetered, WORK_CHARGING to charging)) {
+                val request = PeriodicWorkRequestBuilder<SyncWorker>(INTERVAL_HOURS, TimeUnit.HOURS)
+                    .setConstraints(constraints)
+                    .build()
+                workManager.enqueueUniquePeriodicWork(name, ExistingPeriodicWorkPolicy.KEEP, request)
+            }
+        }
+    }
+}
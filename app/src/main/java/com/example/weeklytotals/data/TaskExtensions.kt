@@ -0,0 +1,14 @@
+package com.example.weeklytotals.data
+
+import com.google.android.gms.tasks.Task
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/** Suspends until a Firebase [Task] finishes, returning its result or throwing its failure. */
+internal suspend fun <T> Task<T>.awaitResult(): T {
+    return suspendCancellableCoroutine { cont ->
+        addOnSuccessListener { result -> cont.resume(result) }
+        addOnFailureListener { e -> cont.resumeWithException(e) }
+    }
+}
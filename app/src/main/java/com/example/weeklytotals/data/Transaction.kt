@@ -1,15 +1,44 @@
 package com.example.weeklytotals.data
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 
-@Entity(tableName = "transactions")
+// syncId is the Firebase key, so it is unique and every remote change is a point lookup.
+// The week indexes serve the main screen (rows by createdAt) and the adjustment lookups.
+// weekKey, year and yearMonth are not indexed: they only feed the rollup triggers.
+@Entity(
+    tableName = "transactions",
+    indices = [
+        Index(value = ["syncId"], unique = true),
+        Index(value = ["weekStartDate", "createdAt"]),
+        Index(value = ["weekStartDate", "isAdjustment"])
+    ]
+)
 data class Transaction(
     @PrimaryKey(autoGenerate = true) val id: Long = 0,
     val weekStartDate: String,   // "yyyy-MM-dd" of the Saturday
     val category: String,
-    val amount: Double,
+    val amountCents: Long,
     val isAdjustment: Boolean = false,
     val createdAt: Long = System.currentTimeMillis(),
-    val details: String? = null
-)
+    val details: String? = null,
+    // Bumped on every local change; the newer side wins when two devices edit a row
+    val updatedAt: Long = createdAt,
+    // Deleted rows are kept as tombstones so the delete syncs like any other change
+    val isDeleted: Boolean = false,
+    // Device-scoped sortable id (see SyncId); rows from before it existed use createdAt
+    val syncId: String = SyncId.next(createdAt)
+) {
+    // Derived from weekStartDate and stored for the rollup triggers. Recomputed whenever a
+    // Transaction is constructed (copy() included), so they can't drift from it.
+    var weekKey: Long = try {
+        WeekCalculator.weekKey(weekStartDate)
+    } catch (e: Exception) {
+        0L
+    }
+    var year: Int = WeekCalculator.yearOf(weekStartDate)
+    var yearMonth: Int = WeekCalculator.yearMonthOf(weekStartDate)
+
+    val amount: Double get() = Money.fromCents(amountCents)
+}
@@ -4,6 +4,7 @@ import androidx.lifecycle.LiveData
 import androidx.room.Dao
 import androidx.room.Delete
 import androidx.room.Insert
+import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import androidx.room.Update
 
@@ -18,16 +19,89 @@ interface TransactionDao {
     @Delete
     suspend fun delete(transaction: Transaction)
 
-    @Query("SELECT * FROM transactions WHERE weekStartDate = :weekStart ORDER BY createdAt DESC")
+    @Query("SELECT * FROM transactions WHERE syncId = :syncId LIMIT 1")
+    suspend fun getTransactionBySyncId(syncId: String): Transaction?
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertOrIgnore(transaction: Transaction): Long
+
+    // Only touches the row if something differs, so an unchanged row is not written, and
+    // never lets an older version overwrite a newer one
+    @Query(
+        """UPDATE transactions SET weekStartDate = :weekStartDate, category = :category, amountCents = :amountCents,
+            isAdjustment = :isAdjustment, details = :details, updatedAt = :updatedAt, isDeleted = :isDeleted,
+            weekKey = :weekKey, year = :year, yearMonth = :yearMonth
+            WHERE syncId = :syncId AND updatedAt <= :updatedAt AND NOT (weekStartDate = :weekStartDate
+            AND category = :category AND amountCents = :amountCents AND isAdjustment = :isAdjustment
+            AND details IS :details AND updatedAt = :updatedAt AND isDeleted = :isDeleted)"""
+    )
+    suspend fun updateBySyncId(
+        syncId: String,
+        weekStartDate: String,
+        category: String,
+        amountCents: Long,
+        isAdjustment: Boolean,
+        details: String?,
+        updatedAt: Long,
+        isDeleted: Boolean,
+        weekKey: Long,
+        year: Int,
+        yearMonth: Int
+    ): Int
+
+    /**
+     * Inserts [transaction], or updates the existing row with the same syncId in place
+     * (keeping its id) unless the local row is newer. Both steps are single lookups on the
+     * unique syncId index.
+     */
+    @androidx.room.Transaction
+    suspend fun upsertBySyncId(transaction: Transaction): UpsertResult {
+        if (insertOrIgnore(transaction) != -1L) return UpsertResult.INSERTED
+        val changed = updateBySyncId(
+            transaction.syncId,
+            transaction.weekStartDate,
+            transaction.category,
+            transaction.amountCents,
+            transaction.isAdjustment,
+            transaction.details,
+            transaction.updatedAt,
+            transaction.isDeleted,
+            transaction.weekKey,
+            transaction.year,
+            transaction.yearMonth
+        )
+        return if (changed > 0) UpsertResult.UPDATED else UpsertResult.UNCHANGED
+    }
+
+    @Query("SELECT createdAt FROM transactions WHERE weekStartDate = :weekStart")
+    suspend fun getCreatedAtsForWeek(weekStart: String): List<Long>
+
+    @Query("SELECT EXISTS(SELECT 1 FROM transactions WHERE weekStartDate = :weekStart)")
+    suspend fun hasRowsForWeek(weekStart: String): Boolean
+
+    @Query("SELECT * FROM transactions WHERE weekStartDate = :weekStart")
+    suspend fun getTransactionsForWeekSync(weekStart: String): List<Transaction>
+
+    /** Turns the row into a tombstone; push it afterwards so the delete reaches Firebase. */
+    @Query("UPDATE transactions SET isDeleted = 1, updatedAt = :updatedAt WHERE syncId = :syncId")
+    suspend fun markDeleted(syncId: String, updatedAt: Long = System.currentTimeMillis())
+
+    @Query("SELECT * FROM transactions WHERE isDeleted = 1 AND updatedAt < :before")
+    suspend fun getTombstonesBefore(before: Long): List<Transaction>
+
+    @Query("DELETE FROM transactions WHERE syncId IN (:syncIds)")
+    suspend fun deleteAllBySyncId(syncIds: List<String>): Int
+
+    @Query("SELECT * FROM transactions WHERE weekStartDate = :weekStart AND isDeleted = 0 ORDER BY createdAt DESC")
     fun getTransactionsForWeek(weekStart: String): LiveData<List<Transaction>>
 
-    @Query("SELECT COALESCE(SUM(amount), 0.0) FROM transactions WHERE weekStartDate = :weekStart")
+    @Query("SELECT COALESCE(SUM(amountCents), 0) / 100.0 FROM transactions WHERE weekStartDate = :weekStart AND isDeleted = 0")
     fun getTotalForWeek(weekStart: String): LiveData<Double>
 
-    @Query("SELECT EXISTS(SELECT 1 FROM transactions WHERE weekStartDate = :weekStart AND isAdjustment = 1)")
+    @Query("SELECT EXISTS(SELECT 1 FROM transactions WHERE weekStartDate = :weekStart AND isAdjustment = 1 AND isDeleted = 0)")
     suspend fun hasAdjustmentForWeek(weekStart: String): Boolean
 
-    @Query("SELECT * FROM transactions WHERE weekStartDate = :weekStart AND isAdjustment = 1 LIMIT 1")
+    @Query("SELECT * FROM transactions WHERE weekStartDate = :weekStart AND isAdjustment = 1 AND isDeleted = 0 LIMIT 1")
     suspend fun getAdjustmentForWeek(weekStart: String): Transaction?
 
     /**
@@ -46,15 +120,6 @@ interface TransactionDao {
         }
     }
 
-    @Query("SELECT category, SUM(amount) as total FROM transactions WHERE substr(weekStartDate, 1, 7) = :yearMonth AND isAdjustment = 0 GROUP BY category")
-    suspend fun getCategoryTotalsForMonth(yearMonth: String): List<CategoryTotal>
-
-    @Query("SELECT category, SUM(amount) as total FROM transactions WHERE substr(weekStartDate, 1, 4) = :year AND isAdjustment = 0 GROUP BY category")
-    suspend fun getCategoryTotalsForYear(year: String): List<CategoryTotal>
-
-    @Query("SELECT DISTINCT substr(weekStartDate, 1, 4) as year FROM transactions ORDER BY year DESC")
-    suspend fun getDistinctYears(): List<String>
-
     @Query("DELETE FROM transactions")
     suspend fun deleteAll()
 }
@@ -0,0 +1,4 @@
+package com.example.weeklytotals.data
+
+/** What a keyed upsert did to the row. */
+enum class UpsertResult { INSERTED, UPDATED, UNCHANGED }
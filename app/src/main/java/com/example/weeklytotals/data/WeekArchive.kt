@@ -0,0 +1,120 @@
+package com.example.weeklytotals.data
+
+import android.util.Base64
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * A closed week moved out of `transactions_by_week` into one compact node at
+ * `archive/{weekStartDate}`: per-category totals, the week's savings, and every row
+ * (tombstones included) as gzipped JSON. The totals can be read without unpacking
+ * [rows]; the rows are only decoded when history needs the detail. Money is in cents,
+ * as everywhere else.
+ */
+data class WeekArchive(
+    val totalsCents: Map<String, Long>,
+    val savingsCents: Long?,
+    val rows: List<Transaction>
+) {
+
+    fun encode(): Map<String, Any?> = mapOf(
+        "totalsCents" to totalsCents,
+        "savingsCents" to savingsCents,
+        "count" to rows.size,
+        "rows" to packRows(rows)
+    )
+
+    /** The rows as a week node, so they can be reconciled like a live week. */
+    fun toSnapshot(week: String): RemoteSnapshot {
+        return RemoteSnapshot(week, rows.associate { it.syncId to TransactionCodec.encode(it) })
+    }
+
+    /** This archive with [newer] folded in; of two rows with the same syncId the later edit wins. */
+    fun merge(newer: List<Transaction>, savingsCents: Long?): WeekArchive {
+        val bySyncId = LinkedHashMap<String, Transaction>()
+        for (row in rows + newer) {
+            val kept = bySyncId[row.syncId]
+            if (kept == null || row.updatedAt >= kept.updatedAt) bySyncId[row.syncId] = row
+        }
+        return of(bySyncId.values.toList(), savingsCents ?: this.savingsCents)
+    }
+
+    companion object {
+        const val NODE = "archive"
+
+        // Weeks older than this many weeks before the current one are archived. A constant,
+        // so every device sharing data agrees on it. About six months; well past the
+        // tombstone retention, so archived weeks rarely still hold tombstones.
+        const val HORIZON_WEEKS = 26
+
+        // archive_index/{week} = true for every archived week: lets a full catch-up tell
+        // archived weeks apart without downloading the blobs
+        const val INDEX_NODE = "archive_index"
+
+        fun path(week: String) = "$NODE/$week"
+
+        fun indexPath(week: String) = "$INDEX_NODE/$week"
+
+        /** Totals match the history screen: adjustments and deleted rows are left out. */
+        fun of(rows: List<Transaction>, savingsCents: Long?): WeekArchive {
+            val totals = HashMap<String, Long>()
+            for (row in rows) {
+                if (row.isAdjustment || row.isDeleted) continue
+                totals[row.category] = (totals[row.category] ?: 0L) + row.amountCents
+            }
+            return WeekArchive(totals, savingsCents, rows.sortedBy { it.syncId })
+        }
+
+        fun decode(raw: Any?): WeekArchive? {
+            val fields = raw as? Map<*, *> ?: return null
+            val packed = fields["rows"] as? String ?: return null
+            val rows = try {
+                unpackRows(packed)
+            } catch (e: Exception) {
+                return null
+            }
+            // Archives written before money moved to cents hold dollar totals and savings
+            val totals = (fields["totalsCents"] as? Map<*, *>)
+                ?.mapNotNull { (k, v) -> if (k is String && v is Number) k to v.toLong() else null }
+                ?: (fields["totals"] as? Map<*, *>)?.mapNotNull { (k, v) ->
+                    val total = SnapshotDecoder.readDouble(v)
+                    if (k is String && !total.isNaN()) k to Money.toCents(total) else null
+                }
+            val savings = (fields["savingsCents"] as? Number)?.toLong()
+                ?: SnapshotDecoder.readDouble(fields["savings"]).takeUnless { it.isNaN() }?.let { Money.toCents(it) }
+            return WeekArchive(totals?.toMap() ?: emptyMap(), savings, rows)
+        }
+
+        // Base64 of gzipped JSON; RTDB only stores strings, numbers and booleans
+        private fun packRows(rows: List<Transaction>): String {
+            val array = JSONArray()
+            for (row in rows) {
+                val json = JSONObject(TransactionCodec.encode(row))
+                json.put("syncId", row.syncId)
+                array.put(json)
+            }
+            val bytes = ByteArrayOutputStream()
+            GZIPOutputStream(bytes).use { it.write(array.toString().toByteArray(Charsets.UTF_8)) }
+            return Base64.encodeToString(bytes.toByteArray(), Base64.NO_WRAP)
+        }
+
+        private fun unpackRows(packed: String): List<Transaction> {
+            val bytes = Base64.decode(packed, Base64.NO_WRAP)
+            val text = GZIPInputStream(ByteArrayInputStream(bytes)).use { String(it.readBytes(), Charsets.UTF_8) }
+            val array = JSONArray(text)
+            val rows = ArrayList<Transaction>(array.length())
+            for (i in 0 until array.length()) {
+                val json = array.getJSONObject(i)
+                val fields = HashMap<String, Any?>()
+                for (key in json.keys()) fields[key] = json.get(key)
+                val syncId = fields.remove("syncId") as? String ?: continue
+                TransactionCodec.decode(syncId, fields)?.let { rows.add(it) }
+            }
+            return rows
+        }
+    }
+}
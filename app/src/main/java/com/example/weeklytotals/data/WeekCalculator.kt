@@ -5,10 +5,16 @@ import java.time.LocalDate
 import java.time.format.DateTimeFormatter
 import java.time.temporal.TemporalAdjusters
 import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * Saturday-to-Friday weeks. A week is identified by the `yyyy-MM-dd` of its Saturday
+ * (the form used in Firebase paths and preferences) or, for arithmetic and indexed
+ * queries, by its week key: the epoch day of that Saturday. Conversions between the two
+ * are cached, so stepping from week to week doesn't re-parse dates.
+ */
 class WeekCalculator {
 
-    private val dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd")
     private val displayMonthDay = DateTimeFormatter.ofPattern("MMM d", Locale.ENGLISH)
 
     fun getCurrentWeekStart(): String {
@@ -16,19 +22,21 @@ class WeekCalculator {
     }
 
     fun getWeekName(weekStartDate: String): String {
-        val start = LocalDate.parse(weekStartDate, dateFormat)
+        val start = LocalDate.ofEpochDay(weekKey(weekStartDate))
         val end = start.plusDays(6)
         return "${start.format(displayMonthDay)} - ${end.format(displayMonthDay)}"
     }
 
     fun getPreviousWeekStart(weekStartDate: String): String {
-        val date = LocalDate.parse(weekStartDate, dateFormat)
-        return date.minusWeeks(1).format(dateFormat)
+        return weekStart(weekKey(weekStartDate) - 7)
+    }
+
+    fun getWeekStartWeeksBefore(weekStartDate: String, weeks: Int): String {
+        return weekStart(weekKey(weekStartDate) - 7L * weeks)
     }
 
     fun getNextWeekStart(weekStartDate: String): String {
-        val date = LocalDate.parse(weekStartDate, dateFormat)
-        return date.plusWeeks(1).format(dateFormat)
+        return weekStart(weekKey(weekStartDate) + 7)
     }
 
     private fun getWeekStart(date: LocalDate): String {
@@ -37,6 +45,35 @@ class WeekCalculator {
         } else {
             date.with(TemporalAdjusters.previous(DayOfWeek.SATURDAY))
         }
-        return start.format(dateFormat)
+        return weekStart(start.toEpochDay())
+    }
+
+    companion object {
+        private val dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd")
+
+        // A few hundred weeks at most, so neither map needs evicting
+        private val keysByDate = ConcurrentHashMap<String, Long>()
+        private val datesByKey = ConcurrentHashMap<Long, String>()
+
+        /** Epoch day of a `yyyy-MM-dd` date. */
+        fun weekKey(weekStartDate: String): Long {
+            return keysByDate.getOrPut(weekStartDate) { LocalDate.parse(weekStartDate, dateFormat).toEpochDay() }
+        }
+
+        /** `yyyy-MM-dd` of an epoch day. */
+        fun weekStart(weekKey: Long): String {
+            return datesByKey.getOrPut(weekKey) { LocalDate.ofEpochDay(weekKey).format(dateFormat) }
+        }
+
+        /** Calendar year of a `yyyy-MM-dd` date, e.g. 2024; 0 if it isn't one. */
+        fun yearOf(weekStartDate: String): Int {
+            return weekStartDate.take(4).toIntOrNull() ?: 0
+        }
+
+        /** Year and month of a `yyyy-MM-dd` date as one number, e.g. 202403; 0 if it isn't one. */
+        fun yearMonthOf(weekStartDate: String): Int {
+            val month = weekStartDate.drop(5).take(2).toIntOrNull() ?: return 0
+            return yearOf(weekStartDate) * 100 + month
+        }
     }
 }
@@ -0,0 +1,98 @@
+package com.example.weeklytotals.data
+
+/**
+ * Content hash of one week's transactions, stored remotely at `digests_v2/{weekStartDate}`.
+ *
+ * The hash is the wrapping sum of a 64-bit FNV-1a hash per row, so it does not depend on
+ * row order and two devices holding the same rows always agree. [count] catches the rare
+ * case of rows whose hashes cancel out. [updatedAt] is the newest row's updatedAt, so the
+ * digests node can be queried for weeks changed since a watermark.
+ *
+ * [VERSION] is part of the node name. Bump it whenever [rowHash] changes: digests written
+ * by the old hash then sit in a node nothing reads, and the first catch-up against the new
+ * node (see [SyncPreferences.getTransactionWatermark]) writes every week's digest again.
+ */
+data class WeekDigest(val hash: Long, val count: Int, val updatedAt: Long) {
+
+    // Hex string: RTDB numbers are doubles and would lose the low bits of a 64-bit hash
+    fun encode(): Map<String, Any?> = mapOf(
+        "hash" to java.lang.Long.toHexString(hash),
+        "count" to count,
+        "updatedAt" to updatedAt
+    )
+
+    companion object {
+        // 1 hashed the amount's double bits; 2 hashes amountCents
+        const val VERSION = 2
+        const val NODE = "digests_v$VERSION"
+
+        private const val FNV_OFFSET = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+        private const val FNV_PRIME = 0x100000001b3L
+
+        fun path(week: String) = "$NODE/$week"
+
+        fun of(rows: List<Transaction>): WeekDigest {
+            var hash = 0L
+            var updatedAt = 0L
+            for (row in rows) {
+                hash += rowHash(row)
+                updatedAt = maxOf(updatedAt, row.updatedAt)
+            }
+            return WeekDigest(hash, rows.size, updatedAt)
+        }
+
+        /** Digests of every week that has rows in [rows]. */
+        fun byWeek(rows: List<Transaction>): Map<String, WeekDigest> {
+            return rows.groupBy { it.weekStartDate }.mapValues { (_, weekRows) -> of(weekRows) }
+        }
+
+        fun decode(raw: Any?): WeekDigest? {
+            val fields = raw as? Map<*, *> ?: return null
+            val hash = (fields["hash"] as? String)?.let {
+                try {
+                    java.lang.Long.parseUnsignedLong(it, 16)
+                } catch (e: NumberFormatException) {
+                    null
+                }
+            } ?: return null
+            val count = (fields["count"] as? Number)?.toInt() ?: return null
+            // Digests written before updatedAt existed
+            val updatedAt = (fields["updatedAt"] as? Number)?.toLong() ?: 0L
+            return WeekDigest(hash, count, updatedAt)
+        }
+
+        // Covers every synced field, so any remote edit changes the digest. The local id
+        // is left out: it differs between devices.
+        private fun rowHash(row: Transaction): Long {
+            var h = FNV_OFFSET
+            h = mix(h, row.syncId)
+            h = mix(h, row.createdAt)
+            h = mix(h, row.weekStartDate)
+            h = mix(h, row.category)
+            h = mix(h, row.amountCents)
+            h = mix(h, if (row.isAdjustment) 1L else 0L)
+            h = mix(h, row.details)
+            h = mix(h, row.updatedAt)
+            h = mix(h, if (row.isDeleted) 1L else 0L)
+            return h
+        }
+
+        private fun mix(hash: Long, value: Long): Long {
+            var h = hash
+            for (shift in 0 until 64 step 8) {
+                h = (h xor ((value ushr shift) and 0xff)) * FNV_PRIME
+            }
+            return h
+        }
+
+        // Length first, so adjacent strings can't run into each other
+        private fun mix(hash: Long, value: String?): Long {
+            if (value == null) return mix(hash, -1L)
+            var h = mix(hash, value.length.toLong())
+            for (c in value) {
+                h = (h xor c.code.toLong()) * FNV_PRIME
+            }
+            return h
+        }
+    }
+}
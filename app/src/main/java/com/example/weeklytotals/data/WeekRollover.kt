@@ -0,0 +1,92 @@
+package com.example.weeklytotals.data
+
+import androidx.room.withTransaction
+
+/**
+ * Closes every week before the current one that has no savings row yet, not just the
+ * previous week, so a device that wasn't opened for a while catches up on its next start.
+ *
+ * All week totals come from one `GROUP BY` over the week rollup (see [CategoryRollups]).
+ * Weeks are then walked in order: a week's overage is carried into the next week as an
+ * adjustment (unless that week already has one), and each unprocessed week gets its
+ * savings row. Everything is written in one Room transaction.
+ */
+class WeekRollover(private val appDb: AppDatabase) {
+
+    /** The rows this run inserted, to be pushed to Firebase. */
+    class Result(val savings: List<WeeklySavings>, val adjustments: List<Transaction>)
+
+    /**
+     * [budgetCents] is the budget the closed weeks ran under. With [backfillHistory], weeks
+     * before the catch-up range that have transactions but no savings row get one too;
+     * those are savings only, as their carry-overs were made when they closed.
+     */
+    suspend fun run(currentWeekStart: String, budgetCents: Long, backfillHistory: Boolean): Result {
+        val savingsDao = appDb.weeklySavingsDao()
+        val transactionDao = appDb.transactionDao()
+        val currentKey = WeekCalculator.weekKey(currentWeekStart)
+        val previousKey = currentKey - DAYS_PER_WEEK
+
+        // Weeks after the latest processed one are open; with none processed, only last week
+        val latest = savingsDao.getLatestWeek()?.let { WeekCalculator.weekKey(it) }
+        val catchUpFrom = if (latest != null && latest < previousKey) latest + DAYS_PER_WEEK else previousKey
+        // Backfill starts at the first real week, never at key 0 or the empty weeks before it
+        val earliest = if (backfillHistory) appDb.rollupDao().getEarliestWeekKey() else null
+        val fromKey = if (earliest != null) minOf(earliest, catchUpFrom) else catchUpFrom
+
+        val totals = appDb.rollupDao().getWeekTotals(fromKey, currentKey).associateBy { it.weekKey }
+        val processed = savingsDao.getWeeksBetween(
+            WeekCalculator.weekStart(fromKey),
+            WeekCalculator.weekStart(previousKey)
+        ).toHashSet()
+
+        val savings = ArrayList<WeeklySavings>()
+        val adjustments = ArrayList<Transaction>()
+
+        for (week in totals.values) {
+            if (week.weekKey >= catchUpFrom) continue
+            val start = WeekCalculator.weekStart(week.weekKey)
+            if (start !in processed) savings.add(WeeklySavings(weekStartDate = start, amountCents = savingsFor(week.totalCents, budgetCents)))
+        }
+
+        var carry = 0L
+        var key = catchUpFrom
+        while (key <= currentKey) {
+            val week = totals[key]
+            var total = week?.totalCents ?: 0L
+            if (carry > 0 && week?.hasAdjustment != true) {
+                adjustments.add(
+                    Transaction(
+                        weekStartDate = WeekCalculator.weekStart(key),
+                        category = "ADJUSTMENT",
+                        amountCents = carry,
+                        isAdjustment = true
+                    )
+                )
+                total += carry
+            }
+            if (key == currentKey) break
+
+            val start = WeekCalculator.weekStart(key)
+            if (start !in processed) savings.add(WeeklySavings(weekStartDate = start, amountCents = savingsFor(total, budgetCents)))
+            carry = maxOf(0L, total - budgetCents)
+            key += DAYS_PER_WEEK
+        }
+
+        if (savings.isEmpty() && adjustments.isEmpty()) return Result(emptyList(), emptyList())
+        return appDb.withTransaction {
+            val savingsIds = savingsDao.insertAllIfAbsent(savings)
+            val insertedAdjustments = adjustments.filter { transactionDao.insertAdjustmentIfNotExists(it) != -1L }
+            Result(savings.filterIndexed { i, _ -> savingsIds[i] != -1L }, insertedAdjustments)
+        }
+    }
+
+    // Over budget or no spending still gets a zero row, which marks the week as processed
+    private fun savingsFor(totalCents: Long, budgetCents: Long): Long {
+        return if (totalCents > 0 && totalCents < budgetCents) budgetCents - totalCents else 0L
+    }
+
+    private companion object {
+        const val DAYS_PER_WEEK = 7L
+    }
+}
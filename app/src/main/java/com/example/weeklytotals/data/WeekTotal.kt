@@ -0,0 +1,7 @@
+package com.example.weeklytotals.data
+
+data class WeekTotal(
+    val weekKey: Long,
+    val totalCents: Long,
+    val hasAdjustment: Boolean
+)
@@ -6,5 +6,7 @@ import androidx.room.PrimaryKey
 @Entity(tableName = "weekly_savings")
 data class WeeklySavings(
     @PrimaryKey val weekStartDate: String,
-    val amount: Double  // 0.0 if over budget (row still exists = processed)
-)
+    val amountCents: Long  // 0 if over budget (row still exists = processed)
+) {
+    val amount: Double get() = Money.fromCents(amountCents)
+}
@@ -11,15 +11,28 @@ interface WeeklySavingsDao {
     @Query("SELECT * FROM weekly_savings WHERE weekStartDate = :weekStart LIMIT 1")
     suspend fun getSavingsForWeek(weekStart: String): WeeklySavings?
 
-    @Query("SELECT COALESCE(SUM(amount), 0.0) FROM weekly_savings")
+    @Query("SELECT COALESCE(SUM(amountCents), 0) / 100.0 FROM weekly_savings")
     suspend fun getTotalSavingsSync(): Double
 
+    @Query("SELECT MAX(weekStartDate) FROM weekly_savings")
+    suspend fun getLatestWeek(): String?
+
+    @Query("SELECT weekStartDate FROM weekly_savings WHERE weekStartDate BETWEEN :fromWeek AND :toWeek")
+    suspend fun getWeeksBetween(fromWeek: String, toWeek: String): List<String>
+
     @Query("SELECT * FROM weekly_savings ORDER BY weekStartDate ASC")
     suspend fun getAllSavingsSync(): List<WeeklySavings>
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun upsert(savings: WeeklySavings)
 
+    /** Row ids, -1 for each week that already had a row (which is kept). */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertAllIfAbsent(savings: List<WeeklySavings>): List<Long>
+
+    @Query("DELETE FROM weekly_savings WHERE weekStartDate IN (:weekStarts)")
+    suspend fun deleteByWeeks(weekStarts: List<String>): Int
+
     @Query("DELETE FROM weekly_savings")
     suspend fun deleteAll()
 }
@@ -7,6 +7,7 @@ import androidx.test.core.app.ApplicationProvider
 import com.example.weeklytotals.data.AppDatabase
 import com.example.weeklytotals.data.Transaction
 import com.example.weeklytotals.data.TransactionDao
+import com.example.weeklytotals.data.UpsertResult
 import kotlinx.coroutines.test.runTest
 import org.junit.After
 import org.junit.Assert.*
@@ -48,7 +49,7 @@ class AdjustmentTest {
         val adjustment = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 50.0,
+            amountCents = 5000L,
             isAdjustment = true,
             createdAt = 1000L
         )
@@ -64,14 +65,14 @@ class AdjustmentTest {
         val first = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 50.0,
+            amountCents = 5000L,
             isAdjustment = true,
             createdAt = 1000L
         )
         val second = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 75.0,
+            amountCents = 7500L,
             isAdjustment = true,
             createdAt = 2000L
         )
@@ -93,14 +94,14 @@ class AdjustmentTest {
         val week1 = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 50.0,
+            amountCents = 5000L,
             isAdjustment = true,
             createdAt = 1000L
         )
         val week2 = Transaction(
             weekStartDate = "2024-01-13",
             category = "ADJUSTMENT",
-            amount = 30.0,
+            amountCents = 3000L,
             isAdjustment = true,
             createdAt = 2000L
         )
@@ -120,7 +121,7 @@ class AdjustmentTest {
         val regular = Transaction(
             weekStartDate = "2024-01-06",
             category = "GAS",
-            amount = 40.0,
+            amountCents = 4000L,
             isAdjustment = false,
             createdAt = 1000L
         )
@@ -130,7 +131,7 @@ class AdjustmentTest {
         val adjustment = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 50.0,
+            amountCents = 5000L,
             isAdjustment = true,
             createdAt = 2000L
         )
@@ -145,14 +146,14 @@ class AdjustmentTest {
         val adjustment = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 50.0,
+            amountCents = 5000L,
             isAdjustment = true,
             createdAt = 1000L
         )
         val id = dao.insert(adjustment)
 
         // Update the amount
-        val updated = adjustment.copy(id = id, amount = 75.0)
+        val updated = adjustment.copy(id = id, amountCents = 7500L)
         dao.update(updated)
 
         val result = dao.getAdjustmentForWeek("2024-01-06")
@@ -165,7 +166,7 @@ class AdjustmentTest {
         val adjustment = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 50.0,
+            amountCents = 5000L,
             isAdjustment = true,
             createdAt = 1000L
         )
@@ -189,7 +190,7 @@ class AdjustmentTest {
         val local = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 50.0,
+            amountCents = 5000L,
             isAdjustment = true,
             createdAt = 1000L
         )
@@ -208,14 +209,14 @@ class AdjustmentTest {
         val local = Transaction(
             weekStartDate = "2024-01-06",
             category = "ADJUSTMENT",
-            amount = 50.0,
+            amountCents = 5000L,
             isAdjustment = true,
             createdAt = 1000L
         )
         val id = dao.insert(local)
 
         // Firebase sync updates the local adjustment to match remote createdAt=2000
-        val aligned = local.copy(id = id, createdAt = 2000L, amount = 60.0)
+        val aligned = local.copy(id = id, createdAt = 2000L, amountCents = 6000L)
         dao.update(aligned)
 
         val result = dao.getAdjustmentForWeek("2024-01-06")
@@ -231,13 +232,13 @@ class AdjustmentTest {
         val refund = Transaction(
             weekStartDate = "2024-01-06",
             category = "REFUND",
-            amount = -25.0,
+            amountCents = -2500L,
             createdAt = 3000L
         )
         dao.insert(refund)
 
         val cursor = db.openHelper.readableDatabase.query(
-            "SELECT COALESCE(SUM(amount), 0.0) FROM transactions WHERE weekStartDate = ?",
+            "SELECT COALESCE(SUM(amountCents), 0) / 100.0 FROM transactions WHERE weekStartDate = ?",
             arrayOf<Any>("2024-01-06")
         )
         cursor.moveToFirst()
@@ -250,12 +251,12 @@ class AdjustmentTest {
     @Test
     fun `refund reduces weekly total and increases remaining budget`() = runTest {
         // Add a regular expense
-        dao.insert(Transaction(weekStartDate = "2024-01-06", category = "GAS", amount = 100.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = "2024-01-06", category = "GAS", amountCents = 10000L, createdAt = 1000L))
         // Add a refund (stored as negative)
-        dao.insert(Transaction(weekStartDate = "2024-01-06", category = "REFUND", amount = -30.0, createdAt = 2000L))
+        dao.insert(Transaction(weekStartDate = "2024-01-06", category = "REFUND", amountCents = -3000L, createdAt = 2000L))
 
         val cursor = db.openHelper.readableDatabase.query(
-            "SELECT COALESCE(SUM(amount), 0.0) FROM transactions WHERE weekStartDate = ?",
+            "SELECT COALESCE(SUM(amountCents), 0) / 100.0 FROM transactions WHERE weekStartDate = ?",
             arrayOf<Any>("2024-01-06")
         )
         cursor.moveToFirst()
@@ -269,10 +270,10 @@ class AdjustmentTest {
     @Test
     fun `refund can push remaining beyond budget`() = runTest {
         // Only add a refund with no expenses
-        dao.insert(Transaction(weekStartDate = "2024-01-06", category = "REFUND", amount = -50.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = "2024-01-06", category = "REFUND", amountCents = -5000L, createdAt = 1000L))
 
         val cursor = db.openHelper.readableDatabase.query(
-            "SELECT COALESCE(SUM(amount), 0.0) FROM transactions WHERE weekStartDate = ?",
+            "SELECT COALESCE(SUM(amountCents), 0) / 100.0 FROM transactions WHERE weekStartDate = ?",
             arrayOf<Any>("2024-01-06")
         )
         cursor.moveToFirst()
@@ -290,7 +291,7 @@ class AdjustmentTest {
         val transaction = Transaction(
             weekStartDate = "2024-01-06",
             category = "GAS",
-            amount = 40.0,
+            amountCents = 4000L,
             createdAt = 4000L,
             details = "Shell station on Main St"
         )
@@ -312,7 +313,7 @@ class AdjustmentTest {
         val transaction = Transaction(
             weekStartDate = "2024-01-06",
             category = "GAS",
-            amount = 40.0,
+            amountCents = 4000L,
             createdAt = 5000L
         )
         val id = dao.insert(transaction)
@@ -325,4 +326,53 @@ class AdjustmentTest {
         assertTrue("Details should be null", cursor.isNull(0))
         cursor.close()
     }
+
+    // --- Keyed upsert by syncId ---
+
+    @Test
+    fun `upsertBySyncId updates existing row in place`() = runTest {
+        val original = Transaction(weekStartDate = "2024-01-06", category = "GAS", amountCents = 4000L, createdAt = 6000L)
+        val id = dao.insert(original)
+
+        val result = dao.upsertBySyncId(original.copy(amountCents = 4500L, details = "edited"))
+
+        assertEquals(UpsertResult.UPDATED, result)
+        val row = dao.getTransactionBySyncId(original.syncId)
+        assertEquals(id, row!!.id)
+        assertEquals(45.0, row.amount, 0.001)
+        assertEquals("edited", row.details)
+    }
+
+    @Test
+    fun `upsertBySyncId reports unchanged and inserted rows`() = runTest {
+        val transaction = Transaction(weekStartDate = "2024-01-06", category = "GAS", amountCents = 4000L, createdAt = 7000L)
+
+        assertEquals(UpsertResult.INSERTED, dao.upsertBySyncId(transaction))
+        assertEquals(UpsertResult.UNCHANGED, dao.upsertBySyncId(transaction))
+        assertEquals(1, dao.getCreatedAtsForWeek("2024-01-06").size)
+    }
+
+    @Test
+    fun `upsertBySyncId never overwrites a newer row`() = runTest {
+        val local = Transaction(weekStartDate = "2024-01-06", category = "GAS", amountCents = 4000L, createdAt = 8000L, updatedAt = 9000L)
+        dao.insert(local)
+
+        val stale = local.copy(amountCents = 1000L, updatedAt = 8500L)
+        assertEquals(UpsertResult.UNCHANGED, dao.upsertBySyncId(stale))
+        assertEquals(40.0, dao.getTransactionBySyncId(local.syncId)!!.amount, 0.001)
+
+        assertEquals(UpsertResult.UPDATED, dao.upsertBySyncId(stale.copy(updatedAt = 9500L, isDeleted = true)))
+        assertTrue(dao.getTransactionBySyncId(local.syncId)!!.isDeleted)
+    }
+
+    @Test
+    fun `rows created in the same millisecond get distinct sync ids`() = runTest {
+        val first = Transaction(weekStartDate = "2024-01-06", category = "GAS", amountCents = 100L, createdAt = 9000L)
+        val second = Transaction(weekStartDate = "2024-01-06", category = "GAS", amountCents = 200L, createdAt = 9000L)
+
+        assertNotEquals(first.syncId, second.syncId)
+        assertEquals(UpsertResult.INSERTED, dao.upsertBySyncId(first))
+        assertEquals(UpsertResult.INSERTED, dao.upsertBySyncId(second))
+        assertEquals(2, dao.getCreatedAtsForWeek("2024-01-06").size)
+    }
 }
@@ -0,0 +1,113 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.CategoryRollups
+import com.example.weeklytotals.data.CategoryTotal
+import com.example.weeklytotals.data.Transaction
+import com.example.weeklytotals.data.WeekCalculator
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class CategoryRollupTest {
+
+    private lateinit var db: AppDatabase
+
+    private val week = "2024-03-02"
+    private val nextMonthWeek = "2024-04-06"
+
+    @Before
+    fun setup() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext<Application>(), AppDatabase::class.java)
+            .allowMainThreadQueries()
+            .addCallback(AppDatabase.ROLLUP_TRIGGERS)
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    private fun totals(list: List<CategoryTotal>) = list.associate { it.category to it.total }
+
+    // What the rollups must always agree with
+    private fun monthFromTransactions(yearMonth: Int): Map<String, Double> {
+        return db.query(
+            "SELECT category, SUM(amountCents) / 100.0 FROM transactions WHERE yearMonth = ? AND isAdjustment = 0 AND isDeleted = 0 GROUP BY category",
+            arrayOf<Any?>(yearMonth)
+        ).use { cursor ->
+            generateSequence { if (cursor.moveToNext()) cursor.getString(0) to cursor.getDouble(1) else null }.toMap()
+        }
+    }
+
+    @Test
+    fun `rollups follow inserts, edits, tombstones and deletes`() = runBlocking {
+        val dao = db.transactionDao()
+        val rollups = db.rollupDao()
+        val gas = Transaction(weekStartDate = week, category = "GAS", amountCents = 1000L, createdAt = 1L)
+        val food = Transaction(weekStartDate = week, category = "FOOD", amountCents = 250L, createdAt = 2L)
+        val adjustment = Transaction(weekStartDate = week, category = "ADJUSTMENT", amountCents = 500L, isAdjustment = true, createdAt = 3L)
+        dao.insert(gas)
+        dao.insert(food)
+        dao.insert(adjustment)
+
+        assertEquals(1750L, rollups.getWeekTotalCents(WeekCalculator.weekKey(week)))
+        assertEquals(mapOf("GAS" to 10.0, "FOOD" to 2.5), totals(rollups.getCategoryTotalsForMonth(202403)))
+
+        // Amount and category edits move the row between rollups
+        val storedGas = dao.getTransactionBySyncId(gas.syncId)!!
+        dao.update(storedGas.copy(amountCents = 1200L))
+        val storedFood = dao.getTransactionBySyncId(food.syncId)!!
+        dao.update(storedFood.copy(category = "GAS"))
+        assertEquals(mapOf("GAS" to 14.5), totals(rollups.getCategoryTotalsForMonth(202403)))
+
+        // A row moved to another month leaves this one
+        dao.update(dao.getTransactionBySyncId(food.syncId)!!.copy(weekStartDate = nextMonthWeek))
+        assertEquals(mapOf("GAS" to 2.5), totals(rollups.getCategoryTotalsForMonth(202404)))
+        assertEquals(monthFromTransactions(202403), totals(rollups.getCategoryTotalsForMonth(202403)))
+
+        // Tombstones and hard deletes both drop out
+        dao.markDeleted(gas.syncId, 10L)
+        dao.deleteAllBySyncId(listOf(food.syncId))
+        assertEquals(emptyMap<String, Double>(), totals(rollups.getCategoryTotalsForYear(2024)))
+        assertEquals(500L, rollups.getWeekTotalCents(WeekCalculator.weekKey(week)))
+        // The adjustment alone still lists the year
+        assertEquals(listOf(2024), rollups.getYears())
+    }
+
+    @Test
+    fun `years include adjustment-only years`() = runBlocking {
+        val dao = db.transactionDao()
+        dao.insert(Transaction(weekStartDate = week, category = "GAS", amountCents = 1000L, createdAt = 1L))
+        dao.insert(Transaction(weekStartDate = "2023-12-30", category = "ADJUSTMENT", amountCents = 300L, isAdjustment = true, createdAt = 2L))
+
+        assertEquals(listOf(2024, 2023), db.rollupDao().getYears())
+        assertEquals(emptyList<CategoryTotal>(), db.rollupDao().getCategoryTotalsForYear(2023))
+    }
+
+    @Test
+    fun `backfill matches the triggers`() = runBlocking {
+        val dao = db.transactionDao()
+        dao.insert(Transaction(weekStartDate = week, category = "GAS", amountCents = 1000L, createdAt = 1L))
+        dao.insert(Transaction(weekStartDate = nextMonthWeek, category = "GAS", amountCents = 333L, createdAt = 2L))
+        dao.insert(Transaction(weekStartDate = week, category = "FOOD", amountCents = 99L, createdAt = 3L, isDeleted = true))
+        val before = totals(db.rollupDao().getCategoryTotalsForYear(2024))
+
+        CategoryRollups.backfill(db.openHelper.writableDatabase)
+
+        assertEquals(before, totals(db.rollupDao().getCategoryTotalsForYear(2024)))
+        assertEquals(mapOf("GAS" to 13.33), before)
+        assertEquals(listOf(2024), db.rollupDao().getYears())
+    }
+}
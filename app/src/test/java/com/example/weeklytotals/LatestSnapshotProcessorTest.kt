@@ -0,0 +1,65 @@
+package com.example.weeklytotals
+
+import com.example.weeklytotals.data.LatestSnapshotProcessor
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+class LatestSnapshotProcessorTest {
+
+    @Test
+    fun `close ends the consumer`() = runBlocking {
+        val job = Job()
+        val seen = mutableListOf<Int>()
+        val processor = LatestSnapshotProcessor<Int>(CoroutineScope(job + Dispatchers.Unconfined)) { seen.add(it) }
+
+        processor.submit(1)
+        processor.close()
+        processor.submit(2)
+        for (child in job.children) child.join()
+
+        assertEquals(listOf(1), seen)
+        assertTrue(job.children.none())
+    }
+
+    @Test
+    fun `snapshots sent while one is handled are conflated to the latest`() = runBlocking {
+        val job = Job()
+        val started = CompletableDeferred<Unit>()
+        val release = CompletableDeferred<Unit>()
+        val handled = Collections.synchronizedList(mutableListOf<Int>())
+        val running = AtomicInteger()
+        var overlapped = false
+        val processor = LatestSnapshotProcessor<Int>(CoroutineScope(job + Dispatchers.Default)) { value ->
+            if (running.incrementAndGet() > 1) overlapped = true
+            started.complete(Unit)
+            release.await()
+            // Give an overlapping consumer, if there were one, time to start
+            delay(10)
+            handled.add(value)
+            running.decrementAndGet()
+        }
+
+        processor.submit(1)
+        started.await()
+        for (value in 2..5) processor.submit(value)
+        release.complete(Unit)
+        withTimeout(5_000) {
+            while (handled.lastOrNull() != 5) delay(5)
+        }
+        processor.close()
+        job.cancel()
+
+        assertEquals(listOf(1, 5), handled.toList())
+        assertEquals(false, overlapped)
+    }
+}
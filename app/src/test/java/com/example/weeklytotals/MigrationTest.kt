@@ -0,0 +1,146 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class MigrationTest {
+
+    private var helper: SupportSQLiteOpenHelper? = null
+    private lateinit var db: SupportSQLiteDatabase
+
+    @After
+    fun tearDown() {
+        helper?.close()
+    }
+
+    // An in-memory database at [version] holding only [tables]
+    private fun open(version: Int, vararg tables: String) {
+        val config = SupportSQLiteOpenHelper.Configuration.builder(ApplicationProvider.getApplicationContext<Application>())
+            .name(null)
+            .callback(object : SupportSQLiteOpenHelper.Callback(version) {
+                override fun onCreate(db: SupportSQLiteDatabase) {
+                    for (sql in tables) db.execSQL(sql)
+                }
+
+                override fun onUpgrade(db: SupportSQLiteDatabase, oldVersion: Int, newVersion: Int) {}
+            })
+            .build()
+        helper = FrameworkSQLiteOpenHelperFactory().create(config)
+        db = helper!!.writableDatabase
+    }
+
+    private fun rows(sql: String): List<List<Any?>> {
+        return db.query(sql).use { cursor ->
+            generateSequence {
+                if (cursor.moveToNext()) {
+                    (0 until cursor.columnCount).map { if (cursor.isNull(it)) null else cursor.getString(it) }
+                } else {
+                    null
+                }
+            }.toList()
+        }
+    }
+
+    @Test
+    fun `week keys backfill to 0 for dates SQLite cannot parse`() {
+        open(
+            12,
+            """CREATE TABLE transactions (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                weekStartDate TEXT NOT NULL,
+                category TEXT NOT NULL,
+                amount REAL NOT NULL,
+                isAdjustment INTEGER NOT NULL,
+                createdAt INTEGER NOT NULL,
+                details TEXT,
+                updatedAt INTEGER NOT NULL,
+                isDeleted INTEGER NOT NULL,
+                syncId TEXT NOT NULL
+            )"""
+        )
+        for ((weekStartDate, createdAt) in listOf("2024-03-02" to 1L, "" to 2L, "not a date" to 3L)) {
+            db.execSQL(
+                "INSERT INTO transactions (weekStartDate, category, amount, isAdjustment, createdAt, updatedAt, isDeleted, syncId) VALUES (?, 'GAS', 1.0, 0, ?, ?, 0, ?)",
+                arrayOf<Any?>(weekStartDate, createdAt, createdAt, createdAt.toString())
+            )
+        }
+
+        AppDatabase.MIGRATION_12_13.migrate(db)
+
+        assertEquals(
+            listOf(
+                listOf("1", "19784", "2024", "202403"),
+                listOf("2", "0", "0", "0"),
+                listOf("3", "0", "0", "0")
+            ),
+            rows("SELECT createdAt, weekKey, year, yearMonth FROM transactions ORDER BY createdAt")
+        )
+    }
+
+    @Test
+    fun `distinct rows sharing a createdAt are re-keyed, not deleted`() {
+        open(
+            7,
+            """CREATE TABLE transactions (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                weekStartDate TEXT NOT NULL,
+                category TEXT NOT NULL,
+                amount REAL NOT NULL,
+                isAdjustment INTEGER NOT NULL,
+                createdAt INTEGER NOT NULL,
+                details TEXT DEFAULT NULL
+            )""",
+            """CREATE TABLE split_entries (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                category TEXT NOT NULL,
+                amount REAL NOT NULL,
+                comment TEXT NOT NULL,
+                splitType TEXT NOT NULL,
+                createdByEmail TEXT NOT NULL,
+                createdAt INTEGER NOT NULL
+            )""",
+            """CREATE TABLE sync_outbox (
+                path TEXT NOT NULL PRIMARY KEY,
+                collection TEXT NOT NULL,
+                entityKey TEXT NOT NULL,
+                enqueuedAt INTEGER NOT NULL
+            )"""
+        )
+        val insert = "INSERT INTO transactions (weekStartDate, category, amount, isAdjustment, createdAt) VALUES ('2024-03-02', ?, ?, 0, ?)"
+        db.execSQL(insert, arrayOf<Any?>("GAS", 10.0, 100L))
+        db.execSQL(insert, arrayOf<Any?>("FOOD", 4.5, 100L))
+        db.execSQL(insert, arrayOf<Any?>("GAS", 10.0, 100L))  // an exact copy of the first
+        db.execSQL(insert, arrayOf<Any?>("MISC", 1.0, 101L))
+
+        AppDatabase.MIGRATION_7_8.migrate(db)
+
+        assertEquals(
+            listOf(
+                listOf("GAS", "100"),
+                listOf("MISC", "101"),
+                listOf("FOOD", "102")
+            ),
+            rows("SELECT category, createdAt FROM transactions ORDER BY createdAt")
+        )
+        // Both rows of the collision are uploaded under their current keys
+        assertEquals(
+            listOf(
+                listOf("transactions_by_week/2024-03-02/100", "100"),
+                listOf("transactions_by_week/2024-03-02/102", "102")
+            ),
+            rows("SELECT path, entityKey FROM sync_outbox ORDER BY path")
+        )
+    }
+}
@@ -8,9 +8,10 @@ import com.example.weeklytotals.data.AppDatabase
 import com.example.weeklytotals.data.BudgetPreferences
 import com.example.weeklytotals.data.Transaction
 import com.example.weeklytotals.data.TransactionDao
+import com.example.weeklytotals.data.WeekRollover
 import com.example.weeklytotals.data.WeeklySavings
 import com.example.weeklytotals.data.WeeklySavingsDao
-import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.runBlocking
 import org.junit.After
 import org.junit.Assert.*
 import org.junit.Before
@@ -21,14 +22,15 @@ import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
 
 /**
- * Tests for the savings/overage carry-over logic in checkWeekRollover().
+ * Tests for the savings/overage carry-over done by [WeekRollover], called the way
+ * MainViewModel.checkWeekRollover() calls it.
  *
  * Verifies:
  * 1. Savings is added exactly once per week (no double counting)
  * 2. The per-week DAO guard (getSavingsForWeek) prevents re-processing
  * 3. Pending budget changes don't corrupt savings calculations
  * 4. Multiple app opens in the same week don't duplicate carry-over
- * 5. Over-budget weeks insert amount=0.0 as a processed flag
+ * 5. Over-budget weeks insert amountCents=0 as a processed flag
  * 6. Savings synced from Firebase prevents recalculation
  * 7. Bootstrap backfills all historical weeks correctly
  */
@@ -53,6 +55,7 @@ class SavingsCarryOverTest {
         val context = ApplicationProvider.getApplicationContext<Application>()
         db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
             .allowMainThreadQueries()
+            .addCallback(AppDatabase.ROLLUP_TRIGGERS)
             .build()
         dao = db.transactionDao()
         weeklySavingsDao = db.weeklySavingsDao()
@@ -66,72 +69,36 @@ class SavingsCarryOverTest {
         budgetPreferences.clearAll()
     }
 
-    private fun getWeekTotal(weekStart: String): Double {
-        val cursor = db.openHelper.readableDatabase.query(
-            "SELECT COALESCE(SUM(amount), 0.0) FROM transactions WHERE weekStartDate = ?",
-            arrayOf<Any>(weekStart)
-        )
-        cursor.moveToFirst()
-        val total = cursor.getDouble(0)
-        cursor.close()
-        return total
-    }
-
     /**
-     * Mirrors the fixed checkWeekRollover() logic exactly.
-     * Budget is read BEFORE applying pending changes.
-     * Per-week DAO row acts as the boolean guard.
+     * Runs the rollover as checkWeekRollover() does: the budget is read BEFORE the pending
+     * change is applied, so closed weeks use the budget they ran under.
      */
-    private suspend fun simulateCheckWeekRollover(previousWeekStart: String, currentWeekStart: String) {
-        val previousTotal = getWeekTotal(previousWeekStart)
-        val previousBudget = budgetPreferences.getBudget()
-
-        // Apply pending budget AFTER reading — takes effect for the new week only
+    private suspend fun rollover(currentWeekStart: String, backfillHistory: Boolean = false) {
+        val previousBudget = budgetPreferences.getBudgetCents()
+        WeekRollover(db).run(currentWeekStart, previousBudget, backfillHistory)
         budgetPreferences.applyPendingBudget()
-
-        // Carry over overage as adjustment
-        if (previousTotal > previousBudget) {
-            val overage = previousTotal - previousBudget
-            val adjustment = Transaction(
-                weekStartDate = currentWeekStart,
-                category = "ADJUSTMENT",
-                amount = overage,
-                isAdjustment = true
-            )
-            dao.insertAdjustmentIfNotExists(adjustment)
-        }
-
-        // Accumulate savings: per-week row acts as the boolean guard
-        if (weeklySavingsDao.getSavingsForWeek(previousWeekStart) == null) {
-            val savingsAmount = if (previousTotal > 0 && previousTotal < previousBudget) {
-                previousBudget - previousTotal
-            } else {
-                0.0 // over budget or zero spending — still insert to mark as processed
-            }
-            weeklySavingsDao.upsert(WeeklySavings(weekStartDate = previousWeekStart, amount = savingsAmount))
-        }
     }
 
     // ── Basic savings carry-over ─────────────────────────────────────────
 
     @Test
-    fun `savings added exactly once when under budget`() = runTest {
+    fun `savings added exactly once when under budget`() = runBlocking {
         budgetPreferences.setBudget(100.0)
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 80.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 8000L, createdAt = 1000L))
 
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
 
         assertEquals(20.0, weeklySavingsDao.getTotalSavingsSync(), 0.01)
     }
 
     @Test
-    fun `no savings when over budget`() = runTest {
+    fun `no savings when over budget`() = runBlocking {
         budgetPreferences.setBudget(100.0)
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 120.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 12000L, createdAt = 1000L))
 
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
 
-        // Row should exist with amount=0.0 (processed flag)
+        // Row should exist with amountCents=0 (processed flag)
         val record = weeklySavingsDao.getSavingsForWeek(week1Start)
         assertNotNull("Record should exist as processed flag", record)
         assertEquals(0.0, record!!.amount, 0.01)
@@ -139,12 +106,12 @@ class SavingsCarryOverTest {
     }
 
     @Test
-    fun `no savings when previous week has zero spending`() = runTest {
+    fun `no savings when previous week has zero spending`() = runBlocking {
         budgetPreferences.setBudget(100.0)
 
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
 
-        // Row should exist with amount=0.0 (processed flag)
+        // Row should exist with amountCents=0 (processed flag)
         val record = weeklySavingsDao.getSavingsForWeek(week1Start)
         assertNotNull("Record should exist as processed flag", record)
         assertEquals(0.0, record!!.amount, 0.01)
@@ -154,12 +121,12 @@ class SavingsCarryOverTest {
     // ── Double counting prevention ───────────────────────────────────────
 
     @Test
-    fun `savings NOT doubled when rollover runs twice in same week`() = runTest {
+    fun `savings NOT doubled when rollover runs twice in same week`() = runBlocking {
         budgetPreferences.setBudget(100.0)
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 80.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 8000L, createdAt = 1000L))
 
-        simulateCheckWeekRollover(week1Start, week2Start)
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
+        rollover(week2Start)
 
         assertEquals(
             "Guard must prevent double counting: savings should be \$20, not \$40",
@@ -170,13 +137,13 @@ class SavingsCarryOverTest {
     }
 
     @Test
-    fun `savings NOT doubled when app opened five times in same week`() = runTest {
+    fun `savings NOT doubled when app opened five times in same week`() = runBlocking {
         budgetPreferences.setBudget(100.0)
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 70.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 7000L, createdAt = 1000L))
 
         // Simulate opening the app 5 times during the same week
         repeat(5) {
-            simulateCheckWeekRollover(week1Start, week2Start)
+            rollover(week2Start)
         }
 
         assertEquals(
@@ -188,12 +155,12 @@ class SavingsCarryOverTest {
     }
 
     @Test
-    fun `overage adjustment NOT duplicated when rollover runs twice`() = runTest {
+    fun `overage adjustment NOT duplicated when rollover runs twice`() = runBlocking {
         budgetPreferences.setBudget(100.0)
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 130.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 13000L, createdAt = 1000L))
 
-        simulateCheckWeekRollover(week1Start, week2Start)
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
+        rollover(week2Start)
 
         // Should only have one adjustment of $30
         val adjustment = dao.getAdjustmentForWeek(week2Start)
@@ -214,17 +181,17 @@ class SavingsCarryOverTest {
     // ── Multi-week accumulation ──────────────────────────────────────────
 
     @Test
-    fun `savings accumulates correctly across multiple weeks`() = runTest {
+    fun `savings accumulates correctly across multiple weeks`() = runBlocking {
         budgetPreferences.setBudget(100.0)
 
         // Week 1: spent $80 → savings = $20
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 80.0, createdAt = 1000L))
-        simulateCheckWeekRollover(week1Start, week2Start)
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 8000L, createdAt = 1000L))
+        rollover(week2Start)
         assertEquals(20.0, weeklySavingsDao.getTotalSavingsSync(), 0.01)
 
         // Week 2: spent $60 → savings = $40
-        dao.insert(Transaction(weekStartDate = week2Start, category = "GAS", amount = 60.0, createdAt = 2000L))
-        simulateCheckWeekRollover(week2Start, week3Start)
+        dao.insert(Transaction(weekStartDate = week2Start, category = "GAS", amountCents = 6000L, createdAt = 2000L))
+        rollover(week3Start)
 
         assertEquals(
             "Total savings should be \$20 + \$40 = \$60",
@@ -235,19 +202,19 @@ class SavingsCarryOverTest {
     }
 
     @Test
-    fun `each week processed exactly once across multi-week accumulation`() = runTest {
+    fun `each week processed exactly once across multi-week accumulation`() = runBlocking {
         budgetPreferences.setBudget(100.0)
 
         // Week 1: spent $90 → savings = $10
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 90.0, createdAt = 1000L))
-        simulateCheckWeekRollover(week1Start, week2Start)
-        simulateCheckWeekRollover(week1Start, week2Start) // duplicate — should be no-op
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 9000L, createdAt = 1000L))
+        rollover(week2Start)
+        rollover(week2Start) // duplicate — should be no-op
 
         // Week 2: spent $75 → savings = $25
-        dao.insert(Transaction(weekStartDate = week2Start, category = "GAS", amount = 75.0, createdAt = 2000L))
-        simulateCheckWeekRollover(week2Start, week3Start)
-        simulateCheckWeekRollover(week2Start, week3Start) // duplicate — should be no-op
-        simulateCheckWeekRollover(week2Start, week3Start) // triple — should be no-op
+        dao.insert(Transaction(weekStartDate = week2Start, category = "GAS", amountCents = 7500L, createdAt = 2000L))
+        rollover(week3Start)
+        rollover(week3Start) // duplicate — should be no-op
+        rollover(week3Start) // triple — should be no-op
 
         assertEquals(
             "Total savings should be \$10 + \$25 = \$35, no duplicates",
@@ -260,15 +227,15 @@ class SavingsCarryOverTest {
     // ── Pending budget fix verification ──────────────────────────────────
 
     @Test
-    fun `savings correct when pending budget exists`() = runTest {
+    fun `savings correct when pending budget exists`() = runBlocking {
         // Budget during week 1 was $100
         budgetPreferences.setBudget(100.0)
         // User queued $200 for next week
         budgetPreferences.setPendingBudget(200.0)
         // Spent $80 in week 1
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 80.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 8000L, createdAt = 1000L))
 
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
 
         // Savings = $100 - $80 = $20 (against old budget, not the pending $200)
         assertEquals(
@@ -282,13 +249,13 @@ class SavingsCarryOverTest {
     }
 
     @Test
-    fun `overage detected correctly when pending budget exists`() = runTest {
+    fun `overage detected correctly when pending budget exists`() = runBlocking {
         budgetPreferences.setBudget(100.0)
         budgetPreferences.setPendingBudget(200.0)
         // Spent $110 in week 1 — over the $100 budget
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 110.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 11000L, createdAt = 1000L))
 
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
 
         // Overage = $110 - $100 = $10 carried to week 2
         val adjustment = dao.getAdjustmentForWeek(week2Start)
@@ -307,30 +274,30 @@ class SavingsCarryOverTest {
     // ── Per-week record as boolean guard ──────────────────────────────────
 
     @Test
-    fun `over-budget week inserts amount 0 record as processed flag`() = runTest {
+    fun `over-budget week inserts amount 0 record as processed flag`() = runBlocking {
         budgetPreferences.setBudget(100.0)
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 150.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 15000L, createdAt = 1000L))
 
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
 
         val record = weeklySavingsDao.getSavingsForWeek(week1Start)
         assertNotNull("Row should exist even for over-budget week", record)
         assertEquals("Amount should be 0 for over-budget", 0.0, record!!.amount, 0.01)
 
         // Running again should not change anything
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
         assertEquals(0.0, weeklySavingsDao.getTotalSavingsSync(), 0.01)
     }
 
     @Test
-    fun `savings synced from Firebase prevents recalculation`() = runTest {
+    fun `savings synced from Firebase prevents recalculation`() = runBlocking {
         budgetPreferences.setBudget(100.0)
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 80.0, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 8000L, createdAt = 1000L))
 
         // Simulate Firebase sync having already inserted a savings record
-        weeklySavingsDao.upsert(WeeklySavings(weekStartDate = week1Start, amount = 20.0))
+        weeklySavingsDao.upsert(WeeklySavings(weekStartDate = week1Start, amountCents = 2000L))
 
-        simulateCheckWeekRollover(week1Start, week2Start)
+        rollover(week2Start)
 
         // Should still be $20 — guard prevented recalculation
         assertEquals(20.0, weeklySavingsDao.getTotalSavingsSync(), 0.01)
@@ -343,27 +310,15 @@ class SavingsCarryOverTest {
     // ── Bootstrap backfill ──────────────────────────────────────────────
 
     @Test
-    fun `bootstrap backfills all historical weeks correctly`() = runTest {
+    fun `bootstrap backfills all historical weeks correctly`() = runBlocking {
         budgetPreferences.setBudget(100.0)
         val currentWeekStart = week3Start
 
         // Historical transactions in week 1 and week 2
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 70.0, createdAt = 1000L))
-        dao.insert(Transaction(weekStartDate = week2Start, category = "GAS", amount = 60.0, createdAt = 2000L))
-
-        // Simulate bootstrap: for each past week with no savings record, calculate and insert
-        val allTransactions = getAllLocalTransactions()
-        val weekTotals = allTransactions
-            .filter { it.weekStartDate != currentWeekStart }
-            .groupBy { it.weekStartDate }
-            .mapValues { (_, txns) -> txns.sumOf { it.amount } }
-
-        for ((week, total) in weekTotals) {
-            if (weeklySavingsDao.getSavingsForWeek(week) == null) {
-                val savingsAmount = if (total > 0 && total < 100.0) 100.0 - total else 0.0
-                weeklySavingsDao.upsert(WeeklySavings(weekStartDate = week, amount = savingsAmount))
-            }
-        }
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 7000L, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week2Start, category = "GAS", amountCents = 6000L, createdAt = 2000L))
+
+        rollover(currentWeekStart, backfillHistory = true)
 
         // Week 1: $100 - $70 = $30, Week 2: $100 - $60 = $40
         assertEquals(30.0, weeklySavingsDao.getSavingsForWeek(week1Start)!!.amount, 0.01)
@@ -372,30 +327,18 @@ class SavingsCarryOverTest {
     }
 
     @Test
-    fun `bootstrap skips weeks already synced from Firebase`() = runTest {
+    fun `bootstrap skips weeks already synced from Firebase`() = runBlocking {
         budgetPreferences.setBudget(100.0)
         val currentWeekStart = week3Start
 
         // Historical transactions
-        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amount = 70.0, createdAt = 1000L))
-        dao.insert(Transaction(weekStartDate = week2Start, category = "GAS", amount = 60.0, createdAt = 2000L))
+        dao.insert(Transaction(weekStartDate = week1Start, category = "GAS", amountCents = 7000L, createdAt = 1000L))
+        dao.insert(Transaction(weekStartDate = week2Start, category = "GAS", amountCents = 6000L, createdAt = 2000L))
 
         // Week 1 already synced from Firebase with slightly different amount (e.g., different device)
-        weeklySavingsDao.upsert(WeeklySavings(weekStartDate = week1Start, amount = 25.0))
-
-        // Simulate bootstrap
-        val allTransactions = getAllLocalTransactions()
-        val weekTotals = allTransactions
-            .filter { it.weekStartDate != currentWeekStart }
-            .groupBy { it.weekStartDate }
-            .mapValues { (_, txns) -> txns.sumOf { it.amount } }
-
-        for ((week, total) in weekTotals) {
-            if (weeklySavingsDao.getSavingsForWeek(week) == null) {
-                val savingsAmount = if (total > 0 && total < 100.0) 100.0 - total else 0.0
-                weeklySavingsDao.upsert(WeeklySavings(weekStartDate = week, amount = savingsAmount))
-            }
-        }
+        weeklySavingsDao.upsert(WeeklySavings(weekStartDate = week1Start, amountCents = 2500L))
+
+        rollover(currentWeekStart, backfillHistory = true)
 
         // Week 1 should retain Firebase value ($25), not recalculate ($30)
         assertEquals(25.0, weeklySavingsDao.getSavingsForWeek(week1Start)!!.amount, 0.01)
@@ -404,28 +347,4 @@ class SavingsCarryOverTest {
         // Total = $25 + $40 = $65
         assertEquals(65.0, weeklySavingsDao.getTotalSavingsSync(), 0.01)
     }
-
-    // ── Helper ────────────────────────────────────────────────────────────
-
-    private fun getAllLocalTransactions(): List<Transaction> {
-        val cursor = db.openHelper.readableDatabase.query(
-            "SELECT id, weekStartDate, category, amount, isAdjustment, createdAt, details FROM transactions"
-        )
-        val results = mutableListOf<Transaction>()
-        while (cursor.moveToNext()) {
-            results.add(
-                Transaction(
-                    id = cursor.getLong(0),
-                    weekStartDate = cursor.getString(1),
-                    category = cursor.getString(2),
-                    amount = cursor.getDouble(3),
-                    isAdjustment = cursor.getInt(4) == 1,
-                    createdAt = cursor.getLong(5),
-                    details = if (cursor.isNull(6)) null else cursor.getString(6)
-                )
-            )
-        }
-        cursor.close()
-        return results
-    }
 }
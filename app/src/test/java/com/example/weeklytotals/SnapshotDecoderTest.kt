@@ -0,0 +1,136 @@
+package com.example.weeklytotals
+
+import com.example.weeklytotals.data.SnapshotDecoder
+import com.example.weeklytotals.data.Transaction
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+/**
+ * Checks SnapshotDecoder against the map-based parsing it replaced, on a synthetic payload
+ * shaped like `DataSnapshot.value` for the transactions node.
+ *
+ * The timing comparison is opt-in: set DECODER_BENCHMARK=1 to run [benchmarkAgainstMapPath]
+ * and print it; without it that test is skipped.
+ */
+class SnapshotDecoderTest {
+
+    private fun buildPayload(size: Int): Map<String, Any?> {
+        val categories = listOf("GROCERIES", "GAS", "RESTAURANT", "ENTERTAINMENT")
+        val payload = LinkedHashMap<String, Any?>(size * 2)
+        for (i in 0 until size) {
+            val createdAt = 1_700_000_000_000L + i
+            val child = mutableMapOf<String, Any?>(
+                "weekStartDate" to "2025-02-08",
+                "category" to categories[i % categories.size],
+                // Firebase returns whole numbers as Long and the rest as Double
+                "amount" to if (i % 3 == 0) (i % 200).toLong() else i % 200 + 0.25,
+                "isAdjustment" to false,
+                "createdAt" to createdAt
+            )
+            if (i % 5 == 0) child["details"] = "note $i"
+            payload[createdAt.toString()] = child
+        }
+        return payload
+    }
+
+    // The previous decoding: one boxed map per child, values cast back out afterwards
+    private fun decodeWithMaps(node: Map<String, Any?>): Double {
+        val remote = mutableMapOf<Long, Map<String, Any?>>()
+        for (raw in node.values) {
+            val child = raw as? Map<*, *> ?: continue
+            val createdAt = when (val value = child["createdAt"]) {
+                is Long -> value
+                is Double -> value.toLong()
+                else -> continue
+            }
+            remote[createdAt] = mapOf(
+                "weekStartDate" to (child["weekStartDate"] as? String ?: continue),
+                "category" to (child["category"] as? String ?: continue),
+                "amount" to (child["amount"]?.let { (it as Number).toDouble() } ?: continue),
+                "isAdjustment" to (child["isAdjustment"] as? Boolean ?: false),
+                "createdAt" to createdAt,
+                "details" to (child["details"] as? String)
+            )
+        }
+        var total = 0.0
+        for (data in remote.values) total += data["amount"] as Double
+        return total
+    }
+
+    // As the sync engine decodes a snapshot: one call per child, keyed by the child's key
+    private fun decodeAll(node: Map<String, Any?>): List<Transaction> {
+        val result = ArrayList<Transaction>(node.size)
+        for ((key, raw) in node) SnapshotDecoder.decodeTransaction(key, raw)?.let { result.add(it) }
+        return result
+    }
+
+    private fun decodeTyped(node: Map<String, Any?>): Double {
+        var total = 0.0
+        for (transaction in decodeAll(node)) total += transaction.amountCents / 100.0
+        return total
+    }
+
+    private inline fun timeMillis(rounds: Int, block: () -> Unit): Double {
+        val start = System.nanoTime()
+        repeat(rounds) { block() }
+        return (System.nanoTime() - start) / 1_000_000.0 / rounds
+    }
+
+    @Test
+    fun decodesSameRowsAsMapPath() {
+        val payload = buildPayload(1_000)
+        assertEquals(decodeWithMaps(payload), decodeTyped(payload), 0.0001)
+        assertEquals(1_000, decodeAll(payload).size)
+    }
+
+    @Test
+    fun skipsMalformedChildren() {
+        val payload = mapOf(
+            "1" to mapOf("weekStartDate" to "2025-02-08", "category" to "GAS", "amount" to 10L),
+            "2" to mapOf("createdAt" to 2L, "category" to "GAS", "amount" to 10L),
+            "3" to mapOf("createdAt" to 3L, "weekStartDate" to "2025-02-08", "category" to "GAS"),
+            "4" to "not a transaction",
+            "5" to mapOf(
+                "createdAt" to 5.0, "weekStartDate" to "2025-02-08",
+                "category" to "GAS", "amount" to 12L
+            )
+        )
+        val decoded = decodeAll(payload)
+        assertEquals(1, decoded.size)
+        assertEquals("5", decoded[0].syncId)
+        assertEquals(5L, decoded[0].createdAt)
+        assertEquals(1200L, decoded[0].amountCents)
+        assertEquals(false, decoded[0].isAdjustment)
+        assertNull(decoded[0].details)
+    }
+
+    @Test
+    fun prefersCentsAndRoundsLegacyAmounts() {
+        val base = mapOf("createdAt" to 1L, "weekStartDate" to "2025-02-08", "category" to "GAS")
+        // 0.1 + 0.2 is 0.30000000000000004 as a double
+        assertEquals(30L, SnapshotDecoder.decodeTransaction("k", base + ("amount" to 0.1 + 0.2))!!.amountCents)
+        assertEquals(1234L, SnapshotDecoder.decodeTransaction("k", base + ("amount" to 12.34))!!.amountCents)
+        assertEquals(
+            1234L,
+            SnapshotDecoder.decodeTransaction("k", base + mapOf("amountCents" to 1234L, "amount" to 99.0))!!.amountCents
+        )
+    }
+
+    @Test
+    fun benchmarkAgainstMapPath() {
+        assumeTrue("set DECODER_BENCHMARK to run", System.getenv("DECODER_BENCHMARK") != null)
+        for (size in listOf(1_000, 10_000, 50_000)) {
+            val payload = buildPayload(size)
+            // Warm up both paths so the JIT has compiled them before timing
+            repeat(5) {
+                decodeWithMaps(payload)
+                decodeTyped(payload)
+            }
+            val mapMs = timeMillis(10) { decodeWithMaps(payload) }
+            val typedMs = timeMillis(10) { decodeTyped(payload) }
+            println(String.format("decode %6d children: map %.2f ms, typed %.2f ms", size, mapMs, typedMs))
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.FirebaseSyncManager
+import com.example.weeklytotals.data.InMemorySyncBackend
+import com.example.weeklytotals.data.SyncOutbox
+import com.example.weeklytotals.data.WeekCalculator
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Runs FirebaseSyncManager end to end against InMemorySyncBackend and an in-memory Room
+ * database: the first reconcile of a scripted week plus a burst of edits must leave the
+ * same rows in both transaction sync modes.
+ *
+ * The timings are opt-in: set SYNC_BENCHMARK_SIZES (e.g. "10000,50000,100000") to run
+ * [benchmarkSyncModes] and print them; without it that test is skipped.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class SyncBackendBenchmarkTest {
+
+    private lateinit var context: Application
+    private lateinit var db: AppDatabase
+
+    private val week = WeekCalculator().getCurrentWeekStart()
+
+    @Before
+    fun setup() {
+        context = ApplicationProvider.getApplicationContext()
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    private fun transaction(createdAt: Long, amount: Double): Map<String, Any?> {
+        return mapOf(
+            "weekStartDate" to week,
+            "category" to "GROCERIES",
+            "amount" to amount,
+            "isAdjustment" to false,
+            "createdAt" to createdAt
+        )
+    }
+
+    private fun weekPayload(size: Int): Map<String, Any?> {
+        val payload = LinkedHashMap<String, Any?>(size * 2)
+        for (i in 0 until size) {
+            val createdAt = 1_700_000_000_000L + i
+            payload[createdAt.toString()] = transaction(createdAt, i % 200 + 0.25)
+        }
+        return payload
+    }
+
+    private fun newManager(backend: InMemorySyncBackend, mode: FirebaseSyncManager.TransactionSyncMode): FirebaseSyncManager {
+        return FirebaseSyncManager(context, backend, db, SyncOutbox(context, backend, db)).apply {
+            transactionSyncMode = mode
+        }
+    }
+
+    private suspend fun awaitRowCount(expected: Int) {
+        withTimeout(120_000) {
+            while (db.transactionDao().getCreatedAtsForWeek(week).size != expected) delay(5)
+        }
+    }
+
+    /** Local createdAts of the week once the initial load and the edits have arrived. */
+    private fun runCase(size: Int, mode: FirebaseSyncManager.TransactionSyncMode, report: Boolean = false) = runBlocking {
+        db.clearAllTables()
+        val backend = InMemorySyncBackend()
+        backend.setValue("transactions_by_week/$week", weekPayload(size))
+        val manager = newManager(backend, mode)
+
+        val loadStart = System.nanoTime()
+        manager.startTransactionListener()
+        withTimeout(120_000) { manager.initialTransactionSyncComplete.await() }
+        val loadMs = (System.nanoTime() - loadStart) / 1_000_000.0
+        assertEquals(size, db.transactionDao().getCreatedAtsForWeek(week).size)
+
+        // A burst of edits from "another device": each adds one row to the live week
+        val edits = 100
+        val editStart = System.nanoTime()
+        backend.replay((0 until edits).map { i ->
+            val createdAt = 1_800_000_000_000L + i
+            "transactions_by_week/$week/$createdAt" to transaction(createdAt, 1.0)
+        })
+        awaitRowCount(size + edits)
+        val editMs = (System.nanoTime() - editStart) / 1_000_000.0
+
+        if (report) println(String.format("%-12s %6d rows: initial %.1f ms, %d edits %.1f ms", mode, size, loadMs, edits, editMs))
+        db.transactionDao().getCreatedAtsForWeek(week).sorted()
+    }
+
+    @Test
+    fun childEventsAndSnapshotsLeaveSameRows() {
+        val childEvents = runCase(1_000, FirebaseSyncManager.TransactionSyncMode.CHILD_EVENTS)
+        val snapshots = runCase(1_000, FirebaseSyncManager.TransactionSyncMode.SNAPSHOT)
+        assertEquals(childEvents, snapshots)
+    }
+
+    @Test
+    fun benchmarkSyncModes() {
+        val configured = System.getenv("SYNC_BENCHMARK_SIZES")
+        assumeTrue("set SYNC_BENCHMARK_SIZES to run", configured != null)
+        for (size in configured!!.split(',').mapNotNull { it.trim().toIntOrNull() }) {
+            runCase(size, FirebaseSyncManager.TransactionSyncMode.CHILD_EVENTS, report = true)
+            runCase(size, FirebaseSyncManager.TransactionSyncMode.SNAPSHOT, report = true)
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.InMemorySyncBackend
+import com.example.weeklytotals.data.RemoteSnapshot
+import com.example.weeklytotals.data.SyncCodec
+import com.example.weeklytotals.data.SyncCollection
+import com.example.weeklytotals.data.SyncEngine
+import com.example.weeklytotals.data.SyncOutbox
+import com.example.weeklytotals.data.SyncStore
+import com.example.weeklytotals.data.UpsertResult
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class SyncEngineTest {
+
+    private lateinit var db: AppDatabase
+    private lateinit var backend: InMemorySyncBackend
+    private lateinit var outbox: SyncOutbox
+
+    // Entities are plain strings, each its own key and value
+    private val codec = object : SyncCodec<String> {
+        override val collection = "test"
+        override fun key(entity: String) = entity
+        override fun encode(entity: String): Any? = entity
+        override fun decode(key: String, raw: Any?) = raw as? String
+    }
+
+    @Before
+    fun setup() {
+        val context = ApplicationProvider.getApplicationContext<Application>()
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        backend = InMemorySyncBackend()
+        outbox = SyncOutbox(context, backend, db)
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun `a push made while a remote change is applied reaches the outbox`() = runBlocking {
+        val applying = CompletableDeferred<Unit>()
+        val release = CompletableDeferred<Unit>()
+        // Holds the remote apply open until the push has been made
+        val store = object : SyncStore<String> {
+            override suspend fun get(key: String) = key
+            override val sortedKeysSql = "SELECT NULL WHERE 0"
+            override suspend fun upsert(entity: String): UpsertResult {
+                applying.complete(Unit)
+                release.await()
+                return UpsertResult.INSERTED
+            }
+            override suspend fun deleteAll(keys: List<String>) = 0
+        }
+        val engine = SyncEngine(SyncCollection(codec, store), backend, db, outbox, CoroutineScope(Dispatchers.IO))
+
+        val apply = launch(Dispatchers.IO) { engine.reconcile(RemoteSnapshot("test", mapOf("remote" to "remote"))) }
+        applying.await()
+        engine.push("local")
+        release.complete(Unit)
+        apply.join()
+
+        // The outbox write waits for the apply's transaction, then the row is queued
+        withTimeout(5_000) {
+            while ("local" !in db.outboxDao().getPendingKeys("test")) delay(5)
+        }
+    }
+}
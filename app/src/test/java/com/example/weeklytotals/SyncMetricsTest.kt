@@ -0,0 +1,24 @@
+package com.example.weeklytotals
+
+import com.example.weeklytotals.data.SyncMetrics
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class SyncMetricsTest {
+
+    @Test
+    fun `a child event keeps the last full reconcile`() {
+        val collection = "metrics-test"
+        SyncMetrics.record(collection, 500, 1_000_000, 2_000_000, 3_000_000, inserted = 500, updated = 0, deleted = 0)
+        SyncMetrics.recordChildEvent(collection, inserted = 0, updated = 1, deleted = 0)
+        SyncMetrics.recordChildEvent(collection, inserted = 0, updated = 0, deleted = 1)
+
+        val stats = SyncMetrics.stats.value.getValue(collection)
+        assertEquals(500, stats.snapshotChildren)
+        assertEquals(500, stats.inserted)
+        assertEquals(1, stats.syncCount)
+        assertEquals(2, stats.childEvents)
+        assertEquals(1, stats.childUpdated)
+        assertEquals(1, stats.childDeleted)
+    }
+}
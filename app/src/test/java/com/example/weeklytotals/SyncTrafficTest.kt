@@ -0,0 +1,77 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.InMemorySyncBackend
+import com.example.weeklytotals.data.MeteredSyncBackend
+import com.example.weeklytotals.data.SplitSyncManager
+import com.example.weeklytotals.data.SyncOutbox
+import com.example.weeklytotals.data.SyncTraffic
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class SyncTrafficTest {
+
+    private lateinit var db: AppDatabase
+
+    @Before
+    fun setup() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext<Application>(), AppDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun `counts accumulate per day, collection and direction`() = runBlocking {
+        val dao = db.syncTrafficDao()
+        dao.addAll(listOf(SyncTraffic("2024-01-06", "categories", SyncTraffic.DIRECTION_UP, 100, 1)))
+        dao.addAll(
+            listOf(
+                SyncTraffic("2024-01-06", "categories", SyncTraffic.DIRECTION_UP, 50, 2),
+                SyncTraffic("2024-01-06", "categories", SyncTraffic.DIRECTION_DOWN, 10, 1)
+            )
+        )
+
+        val rows = db.query("SELECT direction, bytes, operations FROM sync_traffic ORDER BY direction", null).use { c ->
+            generateSequence { if (c.moveToNext()) Triple(c.getString(0), c.getLong(1), c.getLong(2)) else null }.toList()
+        }
+        assertEquals(listOf(Triple("down", 10L, 1L), Triple("up", 150L, 3L)), rows)
+    }
+
+    @Test
+    fun `sizes are estimated as JSON and attributed to top-level nodes`() {
+        assertEquals("{\"a\":1,\"b\":\"xy\"}".length.toLong(), MeteredSyncBackend.jsonSize(mapOf("a" to 1L, "b" to "xy")))
+        assertEquals("transactions_by_week", MeteredSyncBackend.collectionOf("transactions_by_week/2024-01-06/abc"))
+        assertEquals("split/entries", MeteredSyncBackend.collectionOf("split/entries/abc"))
+    }
+
+    @Test
+    fun `a sync pass stores its traffic without waiting for the delayed flush`() = runBlocking {
+        val context = ApplicationProvider.getApplicationContext<Application>()
+        val metered = MeteredSyncBackend(InMemorySyncBackend(), db.syncTrafficDao())
+        SplitSyncManager(context, metered, db, SyncOutbox(context, metered, db)).syncOnce()
+
+        val operations = db.query("SELECT SUM(operations) FROM sync_traffic WHERE direction = ?", arrayOf<Any?>(SyncTraffic.DIRECTION_DOWN)).use { c ->
+            c.moveToFirst()
+            c.getLong(0)
+        }
+        // At least the entries and categories reads
+        assertTrue(operations >= 2)
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Guards the indexes behind the per-week queries: if a schema change drops them, these
+ * plans fall back to a full scan of `transactions` and the tests fail.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class TransactionIndexTest {
+
+    private lateinit var db: AppDatabase
+
+    @Before
+    fun setup() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext<Application>(), AppDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    private fun plan(sql: String): String {
+        return db.query("EXPLAIN QUERY PLAN $sql", arrayOf<Any?>("2024-01-06")).use { cursor ->
+            val detail = cursor.getColumnIndexOrThrow("detail")
+            generateSequence { if (cursor.moveToNext()) cursor.getString(detail) else null }.joinToString("\n")
+        }
+    }
+
+    private fun assertUsesIndex(index: String, sql: String) {
+        val plan = plan(sql)
+        assertTrue("Expected $index in plan:\n$plan", plan.contains("USING INDEX $index") || plan.contains("USING COVERING INDEX $index"))
+    }
+
+    @Test
+    fun `week rows are read in createdAt order from the week index`() {
+        val sql = "SELECT * FROM transactions WHERE weekStartDate = ? AND isDeleted = 0 ORDER BY createdAt DESC"
+        assertUsesIndex("index_transactions_weekStartDate_createdAt", sql)
+        assertTrue(!plan(sql).contains("TEMP B-TREE"))
+    }
+
+    @Test
+    fun `week totals use a week index`() {
+        val plan = plan("SELECT COALESCE(SUM(amountCents), 0) / 100.0 FROM transactions WHERE weekStartDate = ? AND isDeleted = 0")
+        assertTrue("Expected a week index in plan:\n$plan", plan.contains("INDEX index_transactions_weekStartDate_"))
+    }
+
+    @Test
+    fun `adjustment lookup uses the week and adjustment index`() {
+        assertUsesIndex(
+            "index_transactions_weekStartDate_isAdjustment",
+            "SELECT * FROM transactions WHERE weekStartDate = ? AND isAdjustment = 1 AND isDeleted = 0 LIMIT 1"
+        )
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.FirebaseSyncManager
+import com.example.weeklytotals.data.InMemorySyncBackend
+import com.example.weeklytotals.data.Money
+import com.example.weeklytotals.data.SyncOutbox
+import com.example.weeklytotals.data.Transaction
+import com.example.weeklytotals.data.TransactionCodec
+import com.example.weeklytotals.data.WeekArchive
+import com.example.weeklytotals.data.WeekDigest
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class WeekArchiveTest {
+
+    private lateinit var context: Application
+    private lateinit var db: AppDatabase
+    private lateinit var backend: InMemorySyncBackend
+
+    // Far past the default archive horizon
+    private val oldWeek = "2024-01-06"
+
+    @Before
+    fun setup() {
+        context = ApplicationProvider.getApplicationContext()
+        db = newDatabase()
+        backend = InMemorySyncBackend()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    private fun newDatabase() = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+        .allowMainThreadQueries()
+        .build()
+
+    private fun row(createdAt: Long, category: String, amount: Double, isAdjustment: Boolean = false) = Transaction(
+        weekStartDate = oldWeek,
+        category = category,
+        amountCents = Money.toCents(amount),
+        isAdjustment = isAdjustment,
+        createdAt = createdAt
+    )
+
+    @Test
+    fun `archive round-trips rows and totals`() {
+        val rows = listOf(
+            row(1L, "GAS", 10.0),
+            row(2L, "GAS", 2.5).copy(details = "top-up"),
+            row(3L, "FOOD", 7.25),
+            row(4L, "ADJUSTMENT", 30.0, isAdjustment = true),
+            row(5L, "FOOD", 99.0).copy(isDeleted = true, updatedAt = 6L)
+        )
+        val archive = WeekArchive.of(rows, 1250L)
+
+        assertEquals(mapOf("GAS" to 1250L, "FOOD" to 725L), archive.totalsCents)
+        assertEquals(archive, WeekArchive.decode(archive.encode()))
+    }
+
+    @Test
+    fun `archives with dollar totals decode to cents`() {
+        val rows = listOf(row(1L, "GAS", 10.0))
+        val legacy = WeekArchive.of(rows, 0L).encode() - "totalsCents" - "savingsCents" +
+            mapOf("totals" to mapOf("GAS" to 0.1 + 0.2), "savings" to 12.34)
+
+        val archive = WeekArchive.decode(legacy)!!
+
+        assertEquals(mapOf("GAS" to 30L), archive.totalsCents)
+        assertEquals(1234L, archive.savingsCents)
+    }
+
+    @Test
+    fun `archived weeks leave the live tree and come back through history`() = runBlocking {
+        val rows = listOf(row(1L, "GAS", 10.0), row(2L, "FOOD", 4.0))
+        for (t in rows) backend.setValue(TransactionCodec.path(t), TransactionCodec.encode(t))
+        backend.setValue(WeekDigest.path(oldWeek), WeekDigest.of(rows).encode())
+
+        FirebaseSyncManager(context, backend, db, SyncOutbox(context, backend, db)).archiveClosedWeeks()
+
+        assertTrue((backend.valueAt("${TransactionCodec.NODE}/$oldWeek") as? Map<*, *>).isNullOrEmpty())
+        assertEquals(null, backend.valueAt(WeekDigest.path(oldWeek)))
+        assertEquals(true, backend.valueAt(WeekArchive.indexPath(oldWeek)))
+
+        // A second device with nothing local gets the rows from the archive
+        val otherDb = newDatabase()
+        try {
+            val other = FirebaseSyncManager(context, backend, otherDb, SyncOutbox(context, backend, otherDb))
+            other.fetchHistoryWeeks("2024-01-01", "2024-01-31")
+            assertEquals(listOf(1L, 2L), otherDb.transactionDao().getCreatedAtsForWeek(oldWeek).sorted())
+        } finally {
+            otherDb.close()
+        }
+    }
+}
@@ -103,4 +103,14 @@ class WeekCalculatorTest {
         val backToOriginal = calculator.getPreviousWeekStart(next)
         assertEquals(original, backToOriginal)
     }
+
+    @Test
+    fun weekKeysAreEpochDays() {
+        val weekStart = "2024-01-06"
+        val key = WeekCalculator.weekKey(weekStart)
+        assertEquals(LocalDate.of(2024, 1, 6).toEpochDay(), key)
+        assertEquals(weekStart, WeekCalculator.weekStart(key))
+        assertEquals(2024, WeekCalculator.yearOf(weekStart))
+        assertEquals(202401, WeekCalculator.yearMonthOf(weekStart))
+    }
 }
@@ -0,0 +1,150 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.FirebaseSyncManager
+import com.example.weeklytotals.data.InMemorySyncBackend
+import com.example.weeklytotals.data.Money
+import com.example.weeklytotals.data.SyncOutbox
+import com.example.weeklytotals.data.SyncPreferences
+import com.example.weeklytotals.data.Transaction
+import com.example.weeklytotals.data.TransactionCodec
+import com.example.weeklytotals.data.WeekDigest
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class WeekDigestTest {
+
+    private lateinit var db: AppDatabase
+    private lateinit var backend: InMemorySyncBackend
+    private lateinit var manager: FirebaseSyncManager
+
+    private val weekA = "2024-01-06"
+    private val weekB = "2024-01-13"
+
+    @Before
+    fun setup() {
+        val context = ApplicationProvider.getApplicationContext<Application>()
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        backend = InMemorySyncBackend()
+        manager = FirebaseSyncManager(context, backend, db, SyncOutbox(context, backend, db))
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    private fun row(week: String, createdAt: Long, amount: Double) = Transaction(
+        weekStartDate = week,
+        category = "GAS",
+        amountCents = Money.toCents(amount),
+        createdAt = createdAt
+    )
+
+    private fun putRemote(rows: List<Transaction>) {
+        for (t in rows) backend.setValue(TransactionCodec.path(t), TransactionCodec.encode(t))
+    }
+
+    @Test
+    fun `digest ignores row order and local ids`() {
+        val rows = listOf(row(weekA, 1L, 10.0), row(weekA, 2L, 20.5))
+        val reordered = listOf(rows[1].copy(id = 7), rows[0].copy(id = 3))
+        assertEquals(WeekDigest.of(rows), WeekDigest.of(reordered))
+        assertEquals(WeekDigest.of(rows), WeekDigest.decode(WeekDigest.of(rows).encode()))
+        assertNotEquals(WeekDigest.of(rows), WeekDigest.of(listOf(rows[0], rows[1].copy(amountCents = 2000L))))
+    }
+
+    @Test
+    fun `catch-up pulls only weeks whose digest differs`() = runBlocking {
+        val local = listOf(row(weekA, 1L, 10.0), row(weekB, 2L, 20.0))
+        for (t in local) db.transactionDao().insert(t)
+
+        // Week A gained a row remotely but its digest still matches local, so it must be
+        // skipped; week B's digest reflects its new row, so it must be pulled
+        val extraA = row(weekA, 3L, 5.0)
+        val extraB = row(weekB, 4L, 7.0)
+        putRemote(local + extraA + extraB)
+        backend.setValue(WeekDigest.path(weekA), WeekDigest.of(listOf(local[0])).encode())
+        backend.setValue(WeekDigest.path(weekB), WeekDigest.of(listOf(local[1], extraB)).encode())
+
+        manager.catchUpChangedWeeks()
+
+        assertEquals(listOf(1L), db.transactionDao().getCreatedAtsForWeek(weekA).sorted())
+        assertEquals(listOf(2L, 4L), db.transactionDao().getCreatedAtsForWeek(weekB).sorted())
+    }
+
+    @Test
+    fun `catch-up applies remote tombstones`() = runBlocking {
+        val live = row(weekA, 1L, 10.0)
+        db.transactionDao().insert(live)
+
+        val tombstone = live.copy(updatedAt = 5L, isDeleted = true)
+        putRemote(listOf(tombstone))
+        backend.setValue(WeekDigest.path(weekA), WeekDigest.of(listOf(tombstone)).encode())
+
+        manager.catchUpChangedWeeks()
+
+        assertTrue(db.transactionDao().getTransactionBySyncId(live.syncId)!!.isDeleted)
+    }
+
+    @Test
+    fun `incremental catch-up fetches only rows changed since the watermark`() = runBlocking {
+        val watermark = 1_000_000_000L
+        val local = row(weekA, 1L, 10.0)
+        db.transactionDao().insert(local)
+        SyncPreferences(ApplicationProvider.getApplicationContext()).setTransactionWatermark(watermark)
+
+        // The old row is left out of the digest, so it can only arrive by a full read
+        val old = row(weekA, 2L, 3.0)
+        val recent = row(weekA, 3L, 7.0).copy(updatedAt = watermark + 1)
+        putRemote(listOf(local, old, recent))
+        val digest = WeekDigest.of(listOf(local, recent))
+        backend.setValue(WeekDigest.path(weekA), digest.encode())
+
+        manager.catchUpChangedWeeks()
+
+        assertEquals(listOf(1L, 3L), db.transactionDao().getCreatedAtsForWeek(weekA).sorted())
+        assertEquals(digest.updatedAt, SyncPreferences(ApplicationProvider.getApplicationContext()).getTransactionWatermark())
+    }
+
+    @Test
+    fun `catch-up backfills missing digests`() = runBlocking {
+        val local = listOf(row(weekA, 1L, 10.0))
+        for (t in local) db.transactionDao().insert(t)
+        putRemote(local)
+
+        manager.catchUpChangedWeeks()
+
+        assertEquals(WeekDigest.of(local), WeekDigest.decode(backend.valueAt(WeekDigest.path(weekA))))
+    }
+
+    @Test
+    fun `digests written before the cents hash are not read`() = runBlocking {
+        val local = row(weekA, 1L, 10.0)
+        db.transactionDao().insert(local)
+        val edited = local.copy(amountCents = 1250L, updatedAt = local.updatedAt + 1)
+        putRemote(listOf(edited))
+        // A version 1 digest that happens to match the local rows
+        backend.setValue("digests/$weekA", WeekDigest.of(listOf(local)).encode())
+
+        manager.catchUpChangedWeeks()
+
+        assertEquals(1250L, db.transactionDao().getTransactionBySyncId(local.syncId)!!.amountCents)
+        assertEquals(WeekDigest.of(listOf(edited)), WeekDigest.decode(backend.valueAt(WeekDigest.path(weekA))))
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.weeklytotals
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.example.weeklytotals.data.AppDatabase
+import com.example.weeklytotals.data.Transaction
+import com.example.weeklytotals.data.WeekRollover
+import com.example.weeklytotals.data.WeeklySavings
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34], application = android.app.Application::class)
+class WeekRolloverTest {
+
+    private lateinit var db: AppDatabase
+
+    private val week1 = "2024-01-06"
+    private val week2 = "2024-01-13"
+    private val week3 = "2024-01-20"
+    private val week4 = "2024-01-27"
+    private val current = "2024-02-03"
+
+    private val budget = 10000L
+
+    @Before
+    fun setup() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext<Application>(), AppDatabase::class.java)
+            .allowMainThreadQueries()
+            .addCallback(AppDatabase.ROLLUP_TRIGGERS)
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    private suspend fun spend(week: String, cents: Long, createdAt: Long) {
+        db.transactionDao().insert(Transaction(weekStartDate = week, category = "GAS", amountCents = cents, createdAt = createdAt))
+    }
+
+    private suspend fun savings(week: String) = db.weeklySavingsDao().getSavingsForWeek(week)?.amountCents
+
+    @Test
+    fun `catches up every week since the last processed one`() = runBlocking {
+        db.weeklySavingsDao().upsert(WeeklySavings(weekStartDate = week1, amountCents = 0L))
+        spend(week2, 13000L, 1L)  // $30 over, carried into week 3
+        spend(week3, 9000L, 2L)   // $90 + $30 carried = $20 over, carried into week 4
+        // Week 4: nothing spent, so $100 - $20 carried = $80 saved
+
+        val result = WeekRollover(db).run(current, budget, backfillHistory = false)
+
+        assertEquals(0L, savings(week2))
+        assertEquals(0L, savings(week3))
+        assertEquals(8000L, savings(week4))
+        assertEquals(3000L, db.transactionDao().getAdjustmentForWeek(week3)!!.amountCents)
+        assertEquals(2000L, db.transactionDao().getAdjustmentForWeek(week4)!!.amountCents)
+        assertEquals(null, db.transactionDao().getAdjustmentForWeek(current))
+        assertEquals(3, result.savings.size)
+        assertEquals(2, result.adjustments.size)
+
+        // A second run has nothing left to do
+        val again = WeekRollover(db).run(current, budget, backfillHistory = false)
+        assertTrue(again.savings.isEmpty() && again.adjustments.isEmpty())
+    }
+
+    @Test
+    fun `existing adjustments and savings rows are kept`() = runBlocking {
+        spend(week4, 12000L, 1L)
+        // Another device already carried the overage and closed nothing else
+        db.transactionDao().insert(
+            Transaction(weekStartDate = current, category = "ADJUSTMENT", amountCents = 2000L, isAdjustment = true, createdAt = 2L)
+        )
+
+        val result = WeekRollover(db).run(current, budget, backfillHistory = false)
+
+        assertEquals(0L, savings(week4))
+        assertTrue(result.adjustments.isEmpty())
+    }
+
+    @Test
+    fun `backfill closes historical weeks without adding adjustments`() = runBlocking {
+        spend(week1, 7000L, 1L)
+        spend(week2, 15000L, 2L)
+        spend(week4, 6000L, 3L)
+        db.weeklySavingsDao().upsert(WeeklySavings(weekStartDate = week2, amountCents = 100L))
+
+        val result = WeekRollover(db).run(current, budget, backfillHistory = true)
+
+        assertEquals(3000L, savings(week1))
+        assertEquals(100L, savings(week2))
+        assertEquals(4000L, savings(week4))
+        // Week 3 comes after the latest processed week, so it is closed as an empty week
+        assertEquals(0L, savings(week3))
+        assertTrue(result.adjustments.isEmpty())
+        assertEquals(listOf(week1, week3, week4), result.savings.map { it.weekStartDate }.sorted())
+    }
+
+    @Test
+    fun `backfill skips rows whose week date can't be parsed`() = runBlocking {
+        spend("not a date", 500L, 1L)
+        spend(week3, 6000L, 2L)
+
+        val result = WeekRollover(db).run(current, budget, backfillHistory = true)
+
+        assertEquals(null, savings("1970-01-01"))
+        assertEquals(4000L, savings(week3))
+        assertEquals(listOf(week3, week4), result.savings.map { it.weekStartDate }.sorted())
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.weeklytotals.data
+
+import java.util.TreeMap
+
+/**
+ * [SyncBackend] held entirely in memory, for tests and benchmarks that must run without a
+ * Firebase project. Tests script remote state with [setValue], which notifies listeners
+ * the way another device's write would.
+ *
+ * Values are normalised the way Firebase returns them: integral numbers become Long,
+ * empty maps and nulls are removed, and children are ordered by key. Listeners are
+ * called synchronously on the writing thread.
+ */
+class InMemorySyncBackend : SyncBackend {
+
+    private val lock = Any()
+    private var root: Any? = null
+    private val valueListeners = mutableListOf<Pair<String, SyncBackend.ValueListener>>()
+    private val childListeners = mutableListOf<Pair<String, SyncBackend.ChildListener>>()
+    private val connectionListeners = mutableListOf<(Boolean) -> Unit>()
+    private var connected = true
+
+    /** Writes made through [put], [delete] and [update], oldest first. */
+    val writeLog = mutableListOf<Map<String, Any?>>()
+
+    /** Replaces the value at [path] and notifies listeners, as a remote write would. */
+    fun setValue(path: String, value: Any?) {
+        write(mapOf(path to value))
+    }
+
+    /** Applies a sequence of scripted writes, notifying listeners after each one. */
+    fun replay(script: List<Pair<String, Any?>>) {
+        for ((path, value) in script) setValue(path, value)
+    }
+
+    fun valueAt(path: String): Any? = synchronized(lock) { read(path) }
+
+    /** Simulates losing or regaining the connection. Writes keep applying either way. */
+    fun setConnected(value: Boolean) {
+        val listeners = synchronized(lock) {
+            if (connected == value) return
+            connected = value
+            connectionListeners.toList()
+        }
+        listeners.forEach { it(value) }
+    }
+
+    override fun listen(path: String, listener: SyncBackend.ValueListener): ListenerHandle {
+        val entry = path to listener
+        val current = synchronized(lock) {
+            valueListeners.add(entry)
+            read(path)
+        }
+        listener.onValue(RemoteSnapshot(lastSegment(path), current))
+        return ListenerHandle { synchronized(lock) { valueListeners.remove(entry) } }
+    }
+
+    override fun listenOnce(path: String, listener: SyncBackend.ValueListener) {
+        listener.onValue(RemoteSnapshot(lastSegment(path), valueAt(path)))
+    }
+
+    override fun listenChildren(path: String, listener: SyncBackend.ChildListener): ListenerHandle {
+        val entry = path to listener
+        val current = synchronized(lock) {
+            childListeners.add(entry)
+            read(path) as? Map<*, *>
+        }
+        current?.forEach { (key, value) -> listener.onChildAdded(RemoteSnapshot(key as String, value)) }
+        return ListenerHandle { synchronized(lock) { childListeners.remove(entry) } }
+    }
+
+    override fun listenConnected(listener: (Boolean) -> Unit): ListenerHandle {
+        val current = synchronized(lock) {
+            connectionListeners.add(listener)
+            connected
+        }
+        listener(current)
+        return ListenerHandle { synchronized(lock) { connectionListeners.remove(listener) } }
+    }
+
+    override suspend fun get(path: String): RemoteSnapshot {
+        return RemoteSnapshot(lastSegment(path), valueAt(path))
+    }
+
+    override suspend fun getKeyRange(path: String, startKey: String, endKey: String): RemoteSnapshot {
+        // Every stored map is a TreeMap<String, Any?> built by normalize()/writeAt()
+        @Suppress("UNCHECKED_CAST")
+        val node = valueAt(path) as? TreeMap<String, Any?>
+        val range = node?.subMap(startKey, true, endKey, true)
+        return RemoteSnapshot(lastSegment(path), range?.takeIf { it.isNotEmpty() }?.let { TreeMap(it) })
+    }
+
+    override suspend fun getChildrenFrom(path: String, child: String, start: Long): RemoteSnapshot {
+        val node = valueAt(path) as? Map<*, *>
+        val matches = TreeMap<String, Any?>()
+        node?.forEach { (key, value) ->
+            val field = (value as? Map<*, *>)?.get(child) as? Number
+            if (field != null && field.toDouble() >= start) matches[key.toString()] = value
+        }
+        return RemoteSnapshot(lastSegment(path), matches.takeIf { it.isNotEmpty() })
+    }
+
+    override suspend fun put(path: String, value: Any?) {
+        write(mapOf(path to value), log = true)
+    }
+
+    override suspend fun delete(path: String) {
+        write(mapOf(path to null), log = true)
+    }
+
+    override suspend fun update(updates: Map<String, Any?>) {
+        write(updates, log = true)
+    }
+
+    private fun write(updates: Map<String, Any?>, log: Boolean = false) {
+        val valueEvents = mutableListOf<Pair<SyncBackend.ValueListener, RemoteSnapshot>>()
+        val childEvents = mutableListOf<() -> Unit>()
+        synchronized(lock) {
+            if (log) writeLog.add(updates)
+            val valuesBefore = valueListeners.map { (path, _) -> read(path) }
+            val childrenBefore = childListeners.map { (path, _) -> read(path) as? Map<*, *> }
+            for ((path, value) in updates) {
+                root = writeAt(root, segments(path), normalize(value))
+            }
+            valueListeners.forEachIndexed { i, (path, listener) ->
+                val after = read(path)
+                if (after != valuesBefore[i]) {
+                    valueEvents.add(listener to RemoteSnapshot(lastSegment(path), after))
+                }
+            }
+            childListeners.forEachIndexed { i, (path, listener) ->
+                val before = childrenBefore[i] ?: emptyMap<Any?, Any?>()
+                val after = read(path) as? Map<*, *> ?: emptyMap<Any?, Any?>()
+                for ((key, value) in before) {
+                    if (key !in after) {
+                        childEvents.add { listener.onChildRemoved(RemoteSnapshot(key as String, value)) }
+                    }
+                }
+                for ((key, value) in after) {
+                    when {
+                        key !in before ->
+                            childEvents.add { listener.onChildAdded(RemoteSnapshot(key as String, value)) }
+                        before[key] != value ->
+                            childEvents.add { listener.onChildChanged(RemoteSnapshot(key as String, value)) }
+                    }
+                }
+            }
+        }
+        // Child events before value events, matching Firebase
+        childEvents.forEach { it() }
+        valueEvents.forEach { (listener, snapshot) -> listener.onValue(snapshot) }
+    }
+
+    private fun read(path: String): Any? {
+        var node = root
+        for (segment in segments(path)) {
+            node = (node as? Map<*, *>)?.get(segment) ?: return null
+        }
+        return node
+    }
+
+    // Copy-on-write so snapshots already handed to listeners never change underneath them
+    private fun writeAt(node: Any?, path: List<String>, value: Any?): Any? {
+        if (path.isEmpty()) return value
+        val copy = TreeMap<String, Any?>(KEY_ORDER)
+        (node as? Map<*, *>)?.forEach { (k, v) -> copy[k as String] = v }
+        val child = writeAt(copy[path[0]], path.subList(1, path.size), value)
+        if (child == null) copy.remove(path[0]) else copy[path[0]] = child
+        return copy.takeIf { it.isNotEmpty() }
+    }
+
+    private fun normalize(value: Any?): Any? {
+        return when (value) {
+            is Map<*, *> -> {
+                val map = TreeMap<String, Any?>(KEY_ORDER)
+                for ((k, v) in value) {
+                    normalize(v)?.let { map[k.toString()] = it }
+                }
+                map.takeIf { it.isNotEmpty() }
+            }
+            is Int -> value.toLong()
+            is Float -> normalize(value.toDouble())
+            is Double -> if (value == Math.floor(value) && !value.isInfinite()) value.toLong() else value
+            else -> value
+        }
+    }
+
+    private fun segments(path: String): List<String> = path.split('/').filter { it.isNotEmpty() }
+
+    private fun lastSegment(path: String): String? = segments(path).lastOrNull()
+
+    companion object {
+        // Firebase key order: 32-bit integer keys first (numerically), then strings
+        private val KEY_ORDER = Comparator<String> { a, b ->
+            val ia = a.toIntOrNull()
+            val ib = b.toIntOrNull()
+            when {
+                ia != null && ib != null -> ia.compareTo(ib)
+                ia != null -> -1
+                ib != null -> 1
+                else -> a.compareTo(b)
+            }
+        }
+    }
+}
@@ -8,8 +8,8 @@ Usage:
     # List transactions for a week
     python scripts/firebase_tool.py list-txn --week 2026-02-28
 
-    # Delete a transaction by its createdAt key
-    python scripts/firebase_tool.py del-txn --key 1772339400000
+    # Delete a transaction by its createdAt key (--week skips searching every week)
+    python scripts/firebase_tool.py del-txn --key 1772339400000 --week 2026-02-28
 
     # View savings for a week
     python scripts/firebase_tool.py get-savings --week 2026-02-28
@@ -51,7 +51,7 @@ def init_firebase():
 def cmd_add_txn(args):
     init_firebase()
     created_at = args.key or int(datetime.datetime.now().timestamp() * 1000)
-    ref = db.reference(f"weekly_totals/transactions/{created_at}")
+    ref = db.reference(f"weekly_totals/transactions_by_week/{args.week}/{created_at}")
     data = {
         "weekStartDate": args.week,
         "category": args.category.upper(),
@@ -70,8 +70,7 @@ def cmd_add_txn(args):
 
 def cmd_list_txn(args):
     init_firebase()
-    all_txns = db.reference("weekly_totals/transactions").get() or {}
-    filtered = {k: v for k, v in all_txns.items() if v.get("weekStartDate") == args.week}
+    filtered = db.reference(f"weekly_totals/transactions_by_week/{args.week}").get() or {}
 
     if not filtered:
         print(f"No transactions for week {args.week}")
@@ -91,8 +90,16 @@ def cmd_list_txn(args):
 
 def cmd_del_txn(args):
     init_firebase()
-    ref = db.reference(f"weekly_totals/transactions/{args.key}")
-    existing = ref.get()
+    if args.week:
+        weeks = [args.week]
+    else:
+        weeks = list((db.reference("weekly_totals/transactions_by_week").get(shallow=True) or {}).keys())
+    ref, existing = None, None
+    for week in weeks:
+        ref = db.reference(f"weekly_totals/transactions_by_week/{week}/{args.key}")
+        existing = ref.get()
+        if existing is not None:
+            break
     if existing is None:
         print(f"No transaction with key {args.key}")
         return
@@ -198,6 +205,7 @@ def main():
     # del-txn
     p = sub.add_parser("del-txn", help="Delete a transaction by key")
     p.add_argument("--key", required=True, help="createdAt key")
+    p.add_argument("--week", help="Week start date (omit to search all weeks)")
     p.add_argument("--update-savings", action="store_true", help="Also restore savings")
     p.set_defaults(func=cmd_del_txn)
 